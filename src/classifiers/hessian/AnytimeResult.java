@@ -0,0 +1,91 @@
+
+/**
+ * The result of BoundaryMatchingClassifier.classifyWithinBudget().  Along with the label, this
+ * records the margin behind the decision, and how much of the training set was examined
+ * before the scan stopped.
+ */
+public final class AnytimeResult {
+
+	private final int label;
+	private final double margin;
+	private final double zScore;
+	private final boolean settled;
+	private final int numExamined;
+	private final int numTrainingPoints;
+
+	/** Constructor. */
+	public AnytimeResult(int label, double margin, double zScore, boolean settled, int numExamined,
+		int numTrainingPoints) {
+		this.label = label;
+		this.margin = margin;
+		this.zScore = zScore;
+		this.settled = settled;
+		this.numExamined = numExamined;
+		this.numTrainingPoints = numTrainingPoints;
+	}
+
+	/** The predicted label. */
+	public int getLabel() {
+		return label;
+	}
+
+	/**
+	 * The difference between the mean score of the predicted label and that of the runner up
+	 * among the candidates (see LabelScores.candidates()).  This is never negative, since the
+	 * predicted label is the candidate with the highest mean.  It is NaN if the predicted label
+	 * is the only candidate, or if there is no predicted label.
+	 */
+	public double getMargin() {
+		return margin;
+	}
+
+	/**
+	 * The smallest number of standard errors by which the mean of the predicted label leads a
+	 * label that could still beat it.  Those are the other candidates, and the labels with
+	 * training points left to examine, since any of those points could make them a candidate.
+	 * The mean of a label whose points have all been examined is exact.
+	 *
+	 * This is infinite if no label could still beat the predicted label, e.g. if it is the only
+	 * candidate and every other label has been fully examined.  It is NaN if some rival has too
+	 * few points to estimate its mean, or if no label has a near perfect match yet, since then
+	 * the first one to get one wins whatever the means.  It may be negative if a label with a
+	 * higher mean could still become a candidate.
+	 *
+	 * This is a heuristic, not a calibrated confidence: the scores of a label's points aren't
+	 * independent samples, and the z score is checked after every block of points.
+	 */
+	public double getZScore() {
+		return zScore;
+	}
+
+	/**
+	 * Was the decision settled, i.e. did the scan stop because it was decisive or exhaustive,
+	 * rather than because the budget ran out?
+	 */
+	public boolean isSettled() {
+		return settled;
+	}
+
+	/** The number of training points that were examined. */
+	public int getNumExamined() {
+		return numExamined;
+	}
+
+	/** The fraction of the training set that was examined. */
+	public double getFractionExamined() {
+		return numTrainingPoints == 0 ? 1 : 1.0 * numExamined / numTrainingPoints;
+	}
+
+	/**
+	 * Was the whole training set examined?  If so, the label is exactly the label that
+	 * classify() returns.
+	 */
+	public boolean isExhaustive() {
+		return numExamined == numTrainingPoints;
+	}
+
+	public String toString() {
+		return String.format("%d (margin %.4f, z %.2f, %s, examined %d of %d)", label, margin, zScore,
+			settled ? "settled" : "unsettled", numExamined, numTrainingPoints);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,205 @@
+
+/**
+ * A training set for the BoundaryMatchingClassifier, together with the precomputed boundary
+ * neighborhood of every training point.  Computing the Hessians of the training points is by
+ * far the most expensive part of classification, so it pays to do it once, rather than once
+ * per test point.
+ *
+ * The index is immutable, and it can be passed anywhere an Iterable of TrainingPoints is
+ * expected.  BoundaryMatchingClassifier recognizes it and uses the precomputed neighborhoods.
+ *
+ * Classification only needs the label and neighborhood of each training point, which take a
+ * few hundred bytes, while a DigitTrainingPoint takes several kilobytes.  So the points
+ * themselves are optional (see hasPoints()).  An index without them can't be iterated, and
+ * can't return its points, but it classifies just the same.
+ *
+ * Every index has a distinct version, which identifies its training set to a 
+ * ClassificationCache.
+ *
+ * The index also keeps a label balanced ordering of its points (see stratifiedOrder()), so
+ * that any prefix of that ordering is a stratified sample of the training set.
+ */
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public final class BoundaryFeatureIndex implements Iterable<TrainingPoint> {
+
+	// The source of distinct versions.
+	private static final AtomicLong NEXT_VERSION = new AtomicLong();
+
+	private final long version = NEXT_VERSION.incrementAndGet();
+
+	// null if the index doesn't keep its points.
+	private final List<TrainingPoint> points;
+	private final int[] labels;
+	private final FeatureMask[] neighborhoods;
+	private final int[] stratifiedOrder;
+	private final SortedMap<Integer, Integer> labelCounts = new TreeMap<>();
+
+	/**
+	 * Constructor for an index that keeps its points.  The neighborhoods must have been
+	 * computed by BoundaryMatchingClassifier.neighborhood(), in the same order as the points.
+	 *
+	 * @throws IllegalArgumentException If the lists have different sizes.
+	 */
+	public BoundaryFeatureIndex(List<? extends TrainingPoint> points, List<FeatureMask> neighborhoods) {
+		this(labelsOf(points), neighborhoods, Collections.unmodifiableList(new ArrayList<TrainingPoint>(points)));
+	}
+
+	/**
+	 * Constructor for an index of just the labels and neighborhoods of the training points,
+	 * in the same order.
+	 *
+	 * @throws IllegalArgumentException If there are more or fewer labels than neighborhoods.
+	 */
+	public BoundaryFeatureIndex(int[] labels, List<FeatureMask> neighborhoods) {
+		this(labels.clone(), neighborhoods, null);
+	}
+
+	private BoundaryFeatureIndex(int[] labels, List<FeatureMask> neighborhoods, List<TrainingPoint> points) {
+
+		if (labels.length != neighborhoods.size()) {
+			throw new IllegalArgumentException("Every point must have exactly one neighborhood.");
+		}
+
+		this.points = points;
+		this.labels = labels;
+		this.neighborhoods = neighborhoods.toArray(new FeatureMask[neighborhoods.size()]);
+
+		for (int n = 0; n < labels.length; n++) {
+			Integer count = labelCounts.get(labels[n]);
+			labelCounts.put(labels[n], count == null ? 1 : count + 1);
+		}
+		this.stratifiedOrder = stratify(labels);
+	}
+
+	/**
+	 * Build an index, which keeps its points, on a single thread.  TrainingPoints that don't
+	 * have a Grid are ignored, just as BoundaryMatchingClassifier ignores them.  Neighborhoods are shared through the
+	 * FeatureStore, so building several indexes over the same points computes each only once.
+	 */
+	public static BoundaryFeatureIndex build(Iterable<? extends TrainingPoint> trainingSet) {
+
+		List<TrainingPoint> points = new ArrayList<>();
+		List<FeatureMask> neighborhoods = new ArrayList<>();
+
+		for (TrainingPoint point : trainingSet) {
+			if (point instanceof GriddyTrainingPoint) {
+				points.add(point);
+				Grid grid = ((GriddyTrainingPoint) point).getGrid();
+				neighborhoods.add(FeatureStore.SHARED.get(grid, BoundaryMatchingClassifier.NEIGHBORHOOD));
+			}
+		}
+		return new BoundaryFeatureIndex(points, neighborhoods);
+	}
+
+	/** The number of training points in the index. */
+	public int size() {
+		return labels.length;
+	}
+
+	/** A number that identifies this index, and no other, within this JVM. */
+	public long version() {
+		return version;
+	}
+
+	/** The labels of the training points, in ascending order. */
+	public List<Integer> labels() {
+		return new ArrayList<>(labelCounts.keySet());
+	}
+
+	/** The number of training points with the given label. */
+	public int count(int label) {
+		Integer count = labelCounts.get(label);
+		return count == null ? 0 : count;
+	}
+
+	/** Whether the index keeps its training points, and not just their labels and neighborhoods. */
+	public boolean hasPoints() {
+		return points != null;
+	}
+
+	/**
+	 * Getters for the n'th training point.
+	 *
+	 * @throws IllegalStateException If the index doesn't keep its points.
+	 */
+	public TrainingPoint point(int n) {
+		return points().get(n);
+	}
+
+	public int label(int n) {
+		return labels[n];
+	}
+
+	public FeatureMask neighborhood(int n) {
+		return neighborhoods[n];
+	}
+
+	/**
+	 * The positions of the training points, ordered so that the labels take turns (in 
+	 * ascending order of label), and the points of each label appear in a fixed pseudo-random
+	 * order.  Every prefix of this order is then a stratified sample of the training set, with
+	 * the labels as equally represented as the training set allows.  Don't modify the array.
+	 */
+	public int[] stratifiedOrder() {
+		return stratifiedOrder;
+	}
+
+	/**
+	 * The training points, in index order.
+	 *
+	 * @throws IllegalStateException If the index doesn't keep its points.
+	 */
+	public List<TrainingPoint> points() {
+		if (points == null) {
+			throw new IllegalStateException("The index doesn't keep its training points.");
+		}
+		return points;
+	}
+
+	/** @throws IllegalStateException If the index doesn't keep its points. */
+	public Iterator<TrainingPoint> iterator() {
+		return points().iterator();
+	}
+
+	private static int[] labelsOf(List<? extends TrainingPoint> points) {
+		int[] labels = new int[points.size()];
+		for (int n = 0; n < labels.length; n++) {
+			labels[n] = points.get(n).getLabel();
+		}
+		return labels;
+	}
+
+	/** Compute the stratified order of a list of labels.  See stratifiedOrder(). */
+	private static int[] stratify(int[] labels) {
+
+		// The seed is fixed so that the order (and hence anytime results) are repeatable.
+		Random random = new Random(labels.length);
+
+		Map<Integer, List<Integer>> positionsByLabel = new TreeMap<>();
+		for (int n = 0; n < labels.length; n++) {
+			if (!positionsByLabel.containsKey(labels[n])) {
+				positionsByLabel.put(labels[n], new ArrayList<Integer>());
+			}
+			positionsByLabel.get(labels[n]).add(n);
+		}
+
+		List<Iterator<Integer>> positions = new ArrayList<>();
+		for (List<Integer> labelPositions : positionsByLabel.values()) {
+			Collections.shuffle(labelPositions, random);
+			positions.add(labelPositions.iterator());
+		}
+
+		int[] order = new int[labels.length];
+		int next = 0;
+		while (next < order.length) {
+			for (Iterator<Integer> labelPositions : positions) {
+				if (labelPositions.hasNext()) {
+					order[next++] = labelPositions.next();
+				}
+			}
+		}
+		return order;
+	}
+}
\ No newline at end of file
@@ -8,6 +8,28 @@
  * Various modifications boost performance towards the high end of that range.  It seems to 
  * be good at detecting 8's and 0's, but it almost never predicts a label of 1.
  *
+ * Boundary matching is sensitive to small translations of the digit.  Rather than adding 
+ * shifted copies of every training point to the training set, the classifier can optionally
+ * search over small offsets of the test point's boundary, keeping the best aligned score for 
+ * each training point.  The boundaries are packed into FeatureMasks, and the test boundary's
+ * rows are shifted once per query (see ShiftedBoundary), so each offset only costs a bit count
+ * per row of the test boundary.
+ *
+ * When the training set is a BoundaryFeatureIndex, results can also be kept in a 
+ * ClassificationCache (see withCache()), so that repeated images skip the scan entirely.
+ *
+ * For callers that need an answer by a deadline, classifyWithinBudget() scans the training 
+ * set in a label balanced order, and stops as soon as the decision is settled or the budget is
+ * used up.  Decisions often can't be settled early (see classifyWithinBudget()), so expect 
+ * the budget to be the usual limit.
+ *
+ * By default each query is scanned on the calling thread.  To lower the latency of single 
+ * queries when the system is lightly loaded, the scan of a BoundaryFeatureIndex can be split
+ * across a pool of workers (see withIntraQueryParallelism()).
+ *
+ * To explain a decision, retrieve() returns the best scoring training points along with the
+ * per-label summary, collected in the same single scan.
+ *
  */
 import java.util.*;
  
@@ -19,140 +41,378 @@ public class BoundaryMatchingClassifier implements Classifier {
 	// The threshold at or above which a score is considered a near perfect match.  For 
 	// example, a value of 0.98 means that 98% of the detected boundary points match.
 	private static double HIGH_SCORE_THRESH = 1.0;
+	
+	// How far apart, in each direction, a test feature and a training feature may be and still
+	// be considered a match.  This value is a magic number that seems to produce the highest 
+	// scores.
+	private static final int CLOSENESS_THRESHOLD = 1;
+	
+	// The keys under which the boundaries of test points and the neighborhoods of training 
+	// points are kept in the shared FeatureStore, so that repeated queries, and other 
+	// classifiers over the same points, don't recompute them.
+	static final FeatureKey<FeatureMask> BOUNDARY = HessianFeatures.boundary(featureThreshold);
+	static final FeatureKey<FeatureMask> NEIGHBORHOOD = HessianFeatures.neighborhood(featureThreshold, 
+		CLOSENESS_THRESHOLD);
+	
+	// The largest offset, in each direction, at which the test point is compared to each 
+	// training point.  A value of 0 disables the shift search.
+	private final int maxShift;
+	
+	// The number of training points an anytime classification scans between checks of the 
+	// decision and the clock.
+	private static final int ANYTIME_BLOCK_SIZE = 128;
+	
+	// An anytime classification stops early only once the best label is ahead of every label
+	// that could still beat it by at least this many standard errors...
+	private static final double DECISIVE_Z_SCORE = 3.0;
+	
+	// ...and it has seen at least this many training points per label.
+	private static final int MIN_POINTS_PER_LABEL = 20;
+	
+	// Results for previously seen test points, or null if results aren't cached.
+	private final ClassificationCache cache;
+	
+	// The workers that a single scan may be split across, or null if scans are serial.
+	private final IntraQueryParallelism parallelism;
 
-	/** This class is stateless. */
-	private BoundaryMatchingClassifier() {}
+	/** 
+	 * The only state is the (immutable) shift search radius, and the optional cache and 
+	 * workers.
+	 */
+	private BoundaryMatchingClassifier(int maxShift, ClassificationCache cache, IntraQueryParallelism parallelism) {
+		this.maxShift = maxShift;
+		this.cache = cache;
+		this.parallelism = parallelism;
+	}
 	
 	/** 
 	 * This is a singleton class.  It might be prudent in the future to make multiple 
 	 * instances, but for now this works.
 	 */
 	public static BoundaryMatchingClassifier CLASSIFIER() {
-		return new BoundaryMatchingClassifier();
+		return new BoundaryMatchingClassifier(0, null, null);
+	}
+	
+	/**
+	 * Get a classifier that tries every offset (dx, dy) of the test point with |dx| and |dy|
+	 * at most maxShift, and scores each training point by its best aligned offset.  The cost
+	 * of a query grows with (2 * maxShift + 1)^2, so small values are recommended.
+	 *
+	 * @throws IllegalArgumentException If maxShift is negative.
+	 */
+	public static BoundaryMatchingClassifier CLASSIFIER(int maxShift) {
+		
+		if (maxShift < 0) {
+			throw new IllegalArgumentException("maxShift must be non-negative.");
+		}
+		return new BoundaryMatchingClassifier(maxShift, null, null);
+	}
+	
+	/**
+	 * Get a classifier that behaves like this one, but which looks up and records its results
+	 * in the given cache whenever the training set is a BoundaryFeatureIndex.  Other training
+	 * sets can change without notice, so they are never cached.  A cache can be shared by
+	 * several classifiers.
+	 */
+	public BoundaryMatchingClassifier withCache(ClassificationCache cache) {
+		return new BoundaryMatchingClassifier(maxShift, cache, parallelism);
+	}
+	
+	/**
+	 * Get a classifier that behaves like this one, but which splits each scan of a 
+	 * BoundaryFeatureIndex across the given workers when they aren't busy with other queries.
+	 * The results are exactly the same as those of a serial scan.
+	 */
+	public BoundaryMatchingClassifier withIntraQueryParallelism(IntraQueryParallelism parallelism) {
+		return new BoundaryMatchingClassifier(maxShift, cache, parallelism);
 	}
 
 	public int classify(TestPoint testPoint, Iterable<TrainingPoint> trainingSet) {
 		
 		// cache the hessians info for the test point.
-		List<Grid.Index> testFeatureIndices = 
-			Hessian.computeHessians(((GriddyTestPoint) testPoint).getGrid()).extractFeatureIndices(featureThreshold);
+		FeatureMask testFeatures = ((GriddyTestPoint) testPoint).getFeature(BOUNDARY);
+		
+		int bestLabel;
+		
+		if (cache != null && trainingSet instanceof BoundaryFeatureIndex) {
+			long version = ((BoundaryFeatureIndex) trainingSet).version();
+			Integer cachedLabel = cache.get(testFeatures, version, maxShift);
+			if (cachedLabel == null) {
+				bestLabel = classify(testFeatures, trainingSet);
+				cache.put(testFeatures, version, maxShift, bestLabel);
+			}
+			else {
+				bestLabel = cachedLabel;
+			}
+		}
+		else {
+			bestLabel = classify(testFeatures, trainingSet);
+		}
+		
+	//	((GriddyTestPoint) testPoint).getGrid().print();
+		System.out.printf("Classified as %d.  \n", bestLabel);
+		
+		return bestLabel;
+	}
+	
+	/**
+	 * Classify a test point, given its features.
+	 */
+	private int classify(FeatureMask testFeatures, Iterable<TrainingPoint> trainingSet) {
 		
 		// For each point in the training set, store the resulting score as a function of 
 		// the label.
-		Map<Integer, List<Double>> labelToScoreMap = new HashMap<>();
+		LabelScores scores = scan(testFeatures, trainingSet);
 		
-		// Keep track of the labels that have at least one very high score.
-		Set<Integer> labelsWithHighScores = new HashSet<>();
+		// Find the candidate with highest mean score.
+		int bestLabel = decide(scores);
 		
-		// Maintain the single best score.
-		double highScore = 0;
-		int labelWithHighestScore = -1;
+		if (bestLabel != scores.labelWithHighestScore()) {
+			System.out.println("best label does not have the highest score");
+		}
+	//	System.out.println(scores);
+	//	System.out.printf("HighScore: %f \n", scores.max(scores.labelWithHighestScore()));
 		
-		for (TrainingPoint trainingPoint : trainingSet) {
+		return bestLabel;
+	}
+	
+	/**
+	 * Classify a test point within a budget.  The training points are scanned in the index's
+	 * stratified order (see BoundaryFeatureIndex.stratifiedOrder()), so the label is decided 
+	 * by the same per-label mean rule as classify(), but on a label balanced sample of the 
+	 * training set.  The scan stops as soon as the decision is settled, after timeBudgetNanos,
+	 * or after maxTrainingPoints training points, whichever comes first.  If the whole training
+	 * set is scanned, the label is exactly the label that classify() returns.
+	 *
+	 * The decision is settled once the best label has a near perfect match (so it stays a
+	 * candidate, see LabelScores.candidates()), and its mean is decisively ahead of every label
+	 * that could still beat it: the other candidates, and the labels with training points left
+	 * to scan, since any of those points could make them a candidate.  While no label has a
+	 * near perfect match the decision is never settled, since the first one decides it.  See
+	 * AnytimeResult.getZScore().
+	 *
+	 * In practice the scan often runs until the budget is used up, e.g. when the best label 
+	 * has no near perfect match, or when a label with a higher mean still could get one.  Use
+	 * AnytimeClassificationTest to see how often it stops early on a given training set.
+	 */
+	public AnytimeResult classifyWithinBudget(TestPoint testPoint, BoundaryFeatureIndex index, 
+		long timeBudgetNanos, int maxTrainingPoints) {
 		
-			if (trainingPoint instanceof GriddyTrainingPoint) {
-				
-				double score = score(testFeatureIndices, (GriddyTrainingPoint) trainingPoint);
-				
-				if (labelToScoreMap.containsKey(trainingPoint.getLabel())) {
-					labelToScoreMap.get(trainingPoint.getLabel()).add(score);
-				}
-				else {
-					List<Double> vals = new ArrayList<>();
-					vals.add(score);
-					labelToScoreMap.put(trainingPoint.getLabel(), vals);
-				}
-				if (score >= HIGH_SCORE_THRESH) {
-					labelsWithHighScores.add(trainingPoint.getLabel());
-				}	
-				if (score >= highScore) {
-					highScore = score;
-					labelWithHighestScore = trainingPoint.getLabel();
-				}			
+		long start = System.nanoTime();
+		
+		FeatureMask testFeatures = ((GriddyTestPoint) testPoint).getFeature(BOUNDARY);
+		LabelScores scores = new LabelScores(testFeatures.cardinality());
+		ShiftedBoundary shiftedFeatures = new ShiftedBoundary(testFeatures, maxShift);
+		
+		int[] order = index.stratifiedOrder();
+		int limit = Math.min(order.length, Math.max(0, maxTrainingPoints));
+		int numExamined = 0;
+		
+		while (numExamined < limit) {
+			int end = Math.min(limit, numExamined + ANYTIME_BLOCK_SIZE);
+			for (; numExamined < end; numExamined++) {
+				int n = order[numExamined];
+				scores.add(index.label(n), shiftedFeatures.bestOverlap(index.neighborhood(n)));
+			}
+			
+			AnytimeResult provisional = anytimeResult(scores, index, numExamined);
+			if (provisional.isSettled()) {
+				return provisional;
+			}
+			if (System.nanoTime() - start >= timeBudgetNanos) {
+				return provisional;
 			}
 		}
+		return anytimeResult(scores, index, numExamined);
+	}
+	
+	/**
+	 * Decide on a label from the scores so far, and measure how settled the decision is.  The
+	 * margin is over the runner up among the candidates, so it is never negative, and it is NaN
+	 * if the label is the only candidate.  The z score is described in AnytimeResult.  The 
+	 * decision is settled once the z score is decisive and enough points have been seen, or
+	 * once every point has been seen.
+	 */
+	private static AnytimeResult anytimeResult(LabelScores scores, BoundaryFeatureIndex index, int numExamined) {
 		
+		int label = decide(scores);
 		
-		Set<Integer> bestCandidates;
+		boolean exhaustive = numExamined == index.size();
 		
-		if (labelsWithHighScores.isEmpty()) {
-			bestCandidates = labelToScoreMap.keySet();
+		if (label == -1) {
+			return new AnytimeResult(label, Double.NaN, Double.NaN, exhaustive, numExamined, index.size());
 		}
-		else {
-			bestCandidates = labelsWithHighScores;
+		
+		boolean hasNearPerfectMatch = isNearPerfect(scores, label);
+		
+		// The runner up among the candidates, which are every label if none has a near perfect
+		// match.
+		Integer runnerUp = null;
+		for (Integer other : scores.candidates(HIGH_SCORE_THRESH)) {
+			if (other != label && (runnerUp == null || scores.mean(other) > scores.mean(runnerUp))) {
+				runnerUp = other;
+			}
 		}
-
-		// Find the candidate with highest mean score.
-		double maxMean = 0;
-		int bestLabel = -1;
-		for (Integer label : bestCandidates) {
-			double meanScore = mean(labelToScoreMap.get(label));
-			if (meanScore > maxMean) {
-				bestLabel = label;
-				maxMean = meanScore;
+		double margin = runnerUp == null ? Double.NaN : scores.mean(label) - scores.mean(runnerUp);
+		
+		double zScore = Double.POSITIVE_INFINITY;
+		for (Integer other : index.labels()) {
+			if (other == label) {
+				continue;
+			}
+			// A label that is neither a candidate nor able to become one can't beat this one.
+			boolean isCandidate = hasNearPerfectMatch ? isNearPerfect(scores, other) : scores.count(other) > 0;
+			if (isCandidate || scores.count(other) < index.count(other)) {
+				zScore = Math.min(zScore, zScore(scores, index, label, other));
 			}
 		}
-		if (bestLabel != labelWithHighestScore) {
-			System.out.println("best label does not have the highest score");
+		
+		// Until some label has a near perfect match, the first one to get one wins, whatever the
+		// means.
+		if (!hasNearPerfectMatch && !exhaustive) {
+			zScore = Double.NaN;
 		}
-	//	((GriddyTestPoint) testPoint).getGrid().print();
-	//	System.out.println(labelToScoreMap);
-		System.out.printf("Classified as %d.  \n", bestLabel);
-	//	System.out.printf("HighScore: %f \n", highScore);
 		
-		return bestLabel;
+		boolean settled = exhaustive 
+			|| (zScore >= DECISIVE_Z_SCORE && numExamined >= MIN_POINTS_PER_LABEL * index.labels().size());
+		
+		return new AnytimeResult(label, margin, zScore, settled, numExamined, index.size());
 	}
 	
+	private static boolean isNearPerfect(LabelScores scores, int label) {
+		return scores.max(label) >= HIGH_SCORE_THRESH;
+	}
 	
+	/**
+	 * How many standard errors the mean of label is ahead of the mean of other.  The mean of a
+	 * label whose points have all been scanned is exact.  This is NaN if either label has too
+	 * few points to estimate its mean, and infinite if both means are exact and label is ahead.
+	 */
+	private static double zScore(LabelScores scores, BoundaryFeatureIndex index, int label, int other) {
+		
+		double margin = scores.mean(label) - scores.mean(other);
+		double standardError = Math.hypot(standardError(scores, index, label), standardError(scores, index, other));
+		
+		if (standardError == 0) {
+			return margin > 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+		}
+		return margin / standardError;
+	}
+	
+	private static double standardError(LabelScores scores, BoundaryFeatureIndex index, int label) {
+		return scores.count(label) == index.count(label) ? 0 : scores.standardError(label);
+	}
 	
 	/**
-	 * Quantify how well the boundary of the test point lines up with the boundary of the 
-	 * training point.  This will return a double between 0 and 1, inclusive.
+	 * Classify a test point, and also return the k training points with the highest scores,
+	 * best first.  Ties go to the point that comes first in the index.  The neighbors are 
+	 * collected during the same scan as the per-label scores, so this costs about the same as
+	 * classify().
 	 */
-	private static double score(List<Grid.Index> testFeatureIndices, GriddyTrainingPoint trainPoint) {
-
-		List<Grid.Index> trainFeatureIndices = Hessian.computeHessians(trainPoint.getGrid()).extractFeatureIndices(featureThreshold);
+	public Retrieval retrieve(TestPoint testPoint, BoundaryFeatureIndex index, int k) {
+		
+		FeatureMask testFeatures = ((GriddyTestPoint) testPoint).getFeature(BOUNDARY);
+		
+		Scan scan = scan(testFeatures, index, k);
+		
+		return new Retrieval(index, scan.neighbors.drain(), scan.scores, decide(scan.scores));
+	}
+	
+	/**
+	 * Make the classifier's decision from the scores of a test point, which may have been 
+	 * merged together from the scans of several disjoint parts of the training set.
+	 */
+	public static int decide(LabelScores scores) {
+		return scores.decide(HIGH_SCORE_THRESH);
+	}
 	
-		int numMatchingFeatures = 0;
+	/**
+	 * Score the test features against every point in the training set.  If the training set
+	 * is a BoundaryFeatureIndex, its precomputed neighborhoods are used.  Otherwise, the 
+	 * neighborhood of each training point is looked up in the shared FeatureStore, and only
+	 * computed if it isn't there.
+	 */
+	public LabelScores scan(final FeatureMask testFeatures, Iterable<TrainingPoint> trainingSet) {
 		
-		for (Grid.Index index : testFeatureIndices) {
-			// for each testFeatureIndex, test whether there are any trainFeatures nearby
-			if (containsNeighbor(trainFeatureIndices, index)) {
-				numMatchingFeatures++;
-			}
+		if (trainingSet instanceof BoundaryFeatureIndex) {
+			return scan(testFeatures, (BoundaryFeatureIndex) trainingSet, 0).scores;
 		}
 		
-		// Return the fraction of testfeatures that match the trainFeatures.
-		return 1.0 * numMatchingFeatures / testFeatureIndices.size();
+		LabelScores scores = new LabelScores(testFeatures.cardinality());
+		ShiftedBoundary shiftedFeatures = new ShiftedBoundary(testFeatures, maxShift);
+		
+		for (TrainingPoint trainingPoint : trainingSet) {
+			if (trainingPoint instanceof GriddyTrainingPoint) {
+				Grid trainGrid = ((GriddyTrainingPoint) trainingPoint).getGrid();
+				FeatureMask trainNeighborhood = FeatureStore.SHARED.get(trainGrid, NEIGHBORHOOD);
+				scores.add(trainingPoint.getLabel(), shiftedFeatures.bestOverlap(trainNeighborhood));
+			}
+		}
+		return scores;
 	}
 	
 	/**
-	 * Given an index in a grid and a list of grid indices, determine whether the list contains
-	 * any indices that are nearby to the specified index.  In this case, nearby means that
-	 * delta i and delta j are both less than or equal to closenessThreshold.
+	 * Score the test features against every point of the index, keeping the best k points.  
+	 * The scan is split across the workers, if there are any.
 	 */
-	private static boolean containsNeighbor(List<Grid.Index> indices, Grid.Index index) {
+	private Scan scan(final FeatureMask testFeatures, final BoundaryFeatureIndex index, final int k) {
+		
+		final ShiftedBoundary shiftedFeatures = new ShiftedBoundary(testFeatures, maxShift);
+		
+		if (parallelism == null) {
+			return scan(shiftedFeatures, index, k, 0, index.size());
+		}
+		return parallelism.scan(index.size(), new IntraQueryParallelism.RangeScanner<Scan>() {
+			public Scan scan(int from, int to) {
+				return BoundaryMatchingClassifier.this.scan(shiftedFeatures, index, k, from, to);
+			}
+			
+			public void merge(Scan result, Scan later) {
+				result.scores.merge(later.scores);
+				result.neighbors.merge(later.neighbors);
+			}
+		});
+	}
 	
-		// This value is a magic number that seems to produce the highest scores.
-		int closenessThreshold = 1;
+	/**
+	 * Score the test features against the points of the index in [from, to), keeping the best
+	 * k points.
+	 */
+	private Scan scan(ShiftedBoundary testFeatures, BoundaryFeatureIndex index, int k, int from, int to) {
 	
-		for (Grid.Index compareIndex : indices) {
-			if (index.neighborOf(compareIndex, closenessThreshold)) {
-				return true;
-			}
+		Scan scan = new Scan(testFeatures.cardinality(), k);
+		
+		for (int n = from; n < to; n++) {
+			int numMatchingFeatures = testFeatures.bestOverlap(index.neighborhood(n));
+			scan.scores.add(index.label(n), numMatchingFeatures);
+			scan.neighbors.offer(numMatchingFeatures, n);
 		}
-		return false;
-	} 
-	
+		return scan;
+	}
 	
 	/**
-	 * Compute the mean of a list.
+	 * Compute the neighborhood of the boundary of a training grid.  A test feature matches the
+	 * training point if it lands in this neighborhood, i.e. if there are any training features
+	 * nearby.  This is what BoundaryFeatureIndex precomputes for each training point.
+	 *
+	 * This bypasses the FeatureStore, for the IngestionPipeline, whose points are each seen
+	 * once and would only crowd other features out of the store.  Everything else should look
+	 * features up with GriddyTestPoint.getFeature(BOUNDARY) or FeatureStore.get(), so that
+	 * they are shared.
 	 */
-	private static double mean(Collection<Double> vals) {
-		double sum = 0;
-		for (Double val : vals) {
-			sum += val;
+	public static FeatureMask neighborhood(Grid grid) {
+		return Hessian.computeHessians(grid).extractFeatureMask(featureThreshold).dilate(CLOSENESS_THRESHOLD);
+	}
+	
+	/** The result of scanning (part of) a BoundaryFeatureIndex. */
+	private static final class Scan {
+	
+		private final LabelScores scores;
+		private final TopKHeap neighbors;
+		
+		private Scan(int numTestFeatures, int k) {
+			this.scores = new LabelScores(numTestFeatures);
+			this.neighbors = new TopKHeap(k);
 		}
-		return sum / vals.size();
-	}	
+	}
 } 
\ No newline at end of file
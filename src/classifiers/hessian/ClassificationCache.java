@@ -0,0 +1,141 @@
+/**
+ * A bounded cache of BoundaryMatchingClassifier results.  The classifier's decision only
+ * depends on the test point's boundary FeatureMask, the training set, and the shift search
+ * radius, so those make up the key.  Re-scanned or duplicated images with the same boundary
+ * are then classified without scanning the training set at all.
+ *
+ * The training set is identified by BoundaryFeatureIndex.version(), which is unique to each
+ * index.  Since an index can't be modified, a changed training set means a new version, and
+ * the old entries simply stop being hit and age out.  The FeatureMask itself (rather than just
+ * its hash) is part of the key, so a hash collision can never return the wrong label.
+ *
+ * The cache holds at most capacity entries, and the least recently used entry is evicted once
+ * it is full.  A single lock guards the whole cache: a lookup takes nanoseconds, against the
+ * milliseconds of a scan, so there is little to gain from splitting it up.
+ */
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public final class ClassificationCache {
+
+	// In order of least recent use.
+	private final LinkedHashMap<Key, Integer> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @throws IllegalArgumentException If capacity is not positive.
+	 */
+	public ClassificationCache(final int capacity) {
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+
+		this.entries = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Look up the label for a test point's features, or return null if it isn't cached.  This
+	 * counts as a hit or a miss.
+	 */
+	public Integer get(FeatureMask testFeatures, long indexVersion, int maxShift) {
+
+		Key key = new Key(testFeatures, indexVersion, maxShift);
+
+		Integer label;
+		synchronized (entries) {
+			label = entries.get(key);
+		}
+
+		if (label == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		return label;
+	}
+
+	/** Record the label for a test point's features. */
+	public void put(FeatureMask testFeatures, long indexVersion, int maxShift, int label) {
+
+		Key key = new Key(testFeatures, indexVersion, maxShift);
+
+		synchronized (entries) {
+			entries.put(key, label);
+		}
+	}
+
+	/** Getters for the counters. */
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	/** The fraction of lookups that were hits, or 0 if there haven't been any lookups. */
+	public double hitRate() {
+		long hits = hits();
+		long lookups = hits + misses();
+		return lookups == 0 ? 0 : 1.0 * hits / lookups;
+	}
+
+	/** The number of cached entries. */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/** Remove every entry.  The counters are left alone. */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public String toString() {
+		return String.format("ClassificationCache(size: %d, hits: %d, misses: %d)", size(), hits(), misses());
+	}
+
+	/** The cache key.  The hash is computed once, since the masks are hashed row by row. */
+	private static final class Key {
+
+		private final FeatureMask testFeatures;
+		private final long indexVersion;
+		private final int maxShift;
+		private final int hash;
+
+		private Key(FeatureMask testFeatures, long indexVersion, int maxShift) {
+			this.testFeatures = testFeatures;
+			this.indexVersion = indexVersion;
+			this.maxShift = maxShift;
+			this.hash = 31 * (31 * testFeatures.hashCode() + Long.hashCode(indexVersion)) + maxShift;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) other;
+			return indexVersion == that.indexVersion && maxShift == that.maxShift
+				&& testFeatures.equals(that.testFeatures);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
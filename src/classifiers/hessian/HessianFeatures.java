@@ -0,0 +1,54 @@
+
+/**
+ * FeatureKeys for the features derived from a grid's Hessians, so that they can be looked up
+ * in a FeatureStore (e.g. with GriddyTestPoint.getFeature()) rather than recomputed by every
+ * classifier and experiment that needs them.
+ */
+public final class HessianFeatures {
+
+	/** The grid of Hessians, as computed by Hessian.computeHessians(). */
+	public static final FeatureKey<Grid> HESSIANS = new FeatureKey<Grid>("hessians") {
+		public Grid compute(Grid grid, FeatureStore store) {
+			return Hessian.computeHessians(grid);
+		}
+
+		public long sizeInBytes(Grid hessians) {
+			return hessians.sizeInBytes();
+		}
+	};
+
+	/** The boundary of a grid, i.e. the indices of its Hessians of at least threshold. */
+	public static FeatureKey<FeatureMask> boundary(final int threshold) {
+		return new FeatureKey<FeatureMask>("boundary", threshold) {
+			public FeatureMask compute(Grid grid, FeatureStore store) {
+				// The boundary is much smaller than the Hessians, so they aren't kept.
+				return Hessian.computeHessians(grid).extractFeatureMask(threshold);
+			}
+
+			public long sizeInBytes(FeatureMask boundary) {
+				return maskSizeInBytes(boundary);
+			}
+		};
+	}
+
+	/** The points within distance (in each direction) of the boundary of a grid. */
+	public static FeatureKey<FeatureMask> neighborhood(final int threshold, final int distance) {
+		return new FeatureKey<FeatureMask>("neighborhood", threshold, distance) {
+			public FeatureMask compute(Grid grid, FeatureStore store) {
+				return store.get(grid, boundary(threshold)).dilate(distance);
+			}
+
+			public long sizeInBytes(FeatureMask neighborhood) {
+				return maskSizeInBytes(neighborhood);
+			}
+		};
+	}
+
+	/** Estimate the heap used by a mask, including object and array headers. */
+	private static long maskSizeInBytes(FeatureMask mask) {
+		return 24 + 16 + 8L * mask.height();
+	}
+
+	private HessianFeatures() {
+	}
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+
+/**
+ * A pool of workers that BoundaryMatchingClassifier can use to split the scan of a single
+ * query across several threads (see BoundaryMatchingClassifier.withIntraQueryParallelism()).
+ *
+ * Splitting a query lowers its latency, but it doesn't add any capacity: when many queries are
+ * running at once, the cores are already busy, and splitting only adds overhead.  So the
+ * number of pieces adapts to the load.  The workers are shared out between the queries that
+ * are currently running, and once there are at least as many queries as workers, each query
+ * is scanned serially on its own thread.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public final class IntraQueryParallelism {
+
+	/** Pieces smaller than this aren't worth handing to another thread. */
+	private static final int MIN_POINTS_PER_PIECE = 2048;
+
+	private final ExecutorService workers;
+	private final int numWorkers;
+
+	// The number of queries that are currently being scanned with this pool.
+	private final AtomicInteger activeQueries = new AtomicInteger();
+
+	/**
+	 * Constructor.  The workers are daemon threads, so an unused pool doesn't keep the JVM
+	 * alive, but shutdown() should still be called once the pool is no longer needed.
+	 *
+	 * @throws IllegalArgumentException If numWorkers is not positive.
+	 */
+	public IntraQueryParallelism(int numWorkers) {
+
+		if (numWorkers <= 0) {
+			throw new IllegalArgumentException("numWorkers must be positive.");
+		}
+
+		this.numWorkers = numWorkers;
+		this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "intra-query-scan");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** The number of workers in the pool. */
+	public int numWorkers() {
+		return numWorkers;
+	}
+
+	/** The number of queries currently being scanned with this pool. */
+	public int activeQueries() {
+		return activeQueries.get();
+	}
+
+	/** Stop the workers. */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Scan the range [0, numTrainingPoints) by splitting it into consecutive pieces, scanning
+	 * the pieces with scanner, and merging the results in order.  The calling thread scans the
+	 * first piece itself.  As long as the scanner's results merge exactly (as LabelScores do), 
+	 * the result is the same as a single serial scan of the whole range, however many pieces 
+	 * there are.
+	 */
+	<T> T scan(int numTrainingPoints, final RangeScanner<T> scanner) {
+
+		int numActive = activeQueries.incrementAndGet();
+
+		try {
+			int numPieces = Math.min(Math.max(1, numWorkers / numActive), numTrainingPoints / MIN_POINTS_PER_PIECE);
+			if (numPieces <= 1) {
+				return scanner.scan(0, numTrainingPoints);
+			}
+
+			List<Future<T>> pieces = new ArrayList<>();
+			for (int piece = 1; piece < numPieces; piece++) {
+				final int from = (int) ((long) piece * numTrainingPoints / numPieces);
+				final int to = (int) ((long) (piece + 1) * numTrainingPoints / numPieces);
+				pieces.add(workers.submit(new Callable<T>() {
+					public T call() {
+						return scanner.scan(from, to);
+					}
+				}));
+			}
+
+			T result = scanner.scan(0, numTrainingPoints / numPieces);
+			for (Future<T> piece : pieces) {
+				scanner.merge(result, get(piece));
+			}
+			return result;
+		}
+		finally {
+			activeQueries.decrementAndGet();
+		}
+	}
+
+	/** Wait for a piece, rethrowing any failure unchecked. */
+	private static <T> T get(Future<T> piece) {
+		try {
+			return piece.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Unable to scan the training set.", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while scanning the training set.", e);
+		}
+	}
+
+	/** Scans a range of the training set. */
+	interface RangeScanner<T> {
+
+		/** Score the test point against the training points in [from, to). */
+		T scan(int from, int to);
+
+		/** Add the result of scanning a later range into result. */
+		void merge(T result, T later);
+	}
+}
\ No newline at end of file
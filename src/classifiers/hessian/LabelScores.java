@@ -0,0 +1,257 @@
+
+/**
+ * Running summary, per label, of how well a single test point's boundary matched a collection
+ * of training points.  This is everything that BoundaryMatchingClassifier needs in order to
+ * make its decision, without holding on to the individual scores.
+ *
+ * Every score for a test point has the same denominator (the number of features of the test
+ * point), so the numerators are accumulated as integers.  This keeps the means exact, and
+ * makes the result independent of the order in which the training points are visited.
+ *
+ * The scores for disjoint parts of a training set can be computed separately and combined
+ * with merge().  The decision made from the merged scores is exactly the decision that would
+ * have been made from a single pass over the whole training set.
+ */
+import java.util.*;
+import java.io.*;
+
+public final class LabelScores {
+
+	// The number of features of the test point, i.e. the denominator of every score.
+	private final int numTestFeatures;
+
+	private final Map<Integer, Tally> tallies = new HashMap<>();
+
+	// Maintain the single best score.  Ties go to the most recently added training point.
+	private int highestMatches = 0;
+	private int labelWithHighestScore = -1;
+
+	/** Constructor. */
+	public LabelScores(int numTestFeatures) {
+		this.numTestFeatures = numTestFeatures;
+	}
+
+	/**
+	 * Record that a training point with the given label matched numMatchingFeatures of the
+	 * test point's features.
+	 */
+	public void add(int label, int numMatchingFeatures) {
+
+		Tally tally = tallies.get(label);
+		if (tally == null) {
+			tally = new Tally();
+			tallies.put(label, tally);
+		}
+		tally.count++;
+		tally.sum += numMatchingFeatures;
+		tally.sumOfSquares += (long) numMatchingFeatures * numMatchingFeatures;
+		tally.max = Math.max(tally.max, numMatchingFeatures);
+
+		if (numMatchingFeatures >= highestMatches) {
+			highestMatches = numMatchingFeatures;
+			labelWithHighestScore = label;
+		}
+	}
+
+	/**
+	 * Add the scores of other, which must be for the same test point, into these scores.  If 
+	 * both have a training point with the single highest score, the one from other wins, as if
+	 * its training points had been added after these.
+	 *
+	 * @throws IllegalArgumentException If other has a different number of test features.
+	 */
+	public void merge(LabelScores other) {
+
+		if (other.numTestFeatures != numTestFeatures) {
+			throw new IllegalArgumentException("Can only merge scores for the same test point.");
+		}
+		if (other.tallies.isEmpty()) {
+			return;
+		}
+
+		for (Map.Entry<Integer, Tally> entry : other.tallies.entrySet()) {
+			Tally tally = tallies.get(entry.getKey());
+			if (tally == null) {
+				tally = new Tally();
+				tallies.put(entry.getKey(), tally);
+			}
+			tally.count += entry.getValue().count;
+			tally.sum += entry.getValue().sum;
+			tally.sumOfSquares += entry.getValue().sumOfSquares;
+			tally.max = Math.max(tally.max, entry.getValue().max);
+		}
+
+		if (other.highestMatches >= highestMatches) {
+			highestMatches = other.highestMatches;
+			labelWithHighestScore = other.labelWithHighestScore;
+		}
+	}
+
+	/** Write these scores to a stream, in a form that read() understands. */
+	public void write(DataOutput out) throws IOException {
+
+		out.writeInt(numTestFeatures);
+		out.writeInt(highestMatches);
+		out.writeInt(labelWithHighestScore);
+		out.writeInt(tallies.size());
+		for (Map.Entry<Integer, Tally> entry : tallies.entrySet()) {
+			out.writeInt(entry.getKey());
+			out.writeInt(entry.getValue().count);
+			out.writeLong(entry.getValue().sum);
+			out.writeLong(entry.getValue().sumOfSquares);
+			out.writeInt(entry.getValue().max);
+		}
+	}
+
+	/**
+	 * Read scores that were written by write().
+	 *
+	 * @throws IOException If there are problems reading the stream.
+	 */
+	public static LabelScores read(DataInput in) throws IOException {
+
+		LabelScores scores = new LabelScores(in.readInt());
+		scores.highestMatches = in.readInt();
+		scores.labelWithHighestScore = in.readInt();
+
+		int numLabels = in.readInt();
+		for (int l = 0; l < numLabels; l++) {
+			Tally tally = new Tally();
+			int label = in.readInt();
+			tally.count = in.readInt();
+			tally.sum = in.readLong();
+			tally.sumOfSquares = in.readLong();
+			tally.max = in.readInt();
+			scores.tallies.put(label, tally);
+		}
+		return scores;
+	}
+
+	/** The number of features of the test point. */
+	public int numTestFeatures() {
+		return numTestFeatures;
+	}
+
+	/** The number of training points recorded so far. */
+	public int count() {
+		int count = 0;
+		for (Tally tally : tallies.values()) {
+			count += tally.count;
+		}
+		return count;
+	}
+
+	/** The labels that have been seen, in ascending order. */
+	public List<Integer> labels() {
+		List<Integer> labels = new ArrayList<>(tallies.keySet());
+		Collections.sort(labels);
+		return labels;
+	}
+
+	/** The number of training points with the given label. */
+	public int count(int label) {
+		Tally tally = tallies.get(label);
+		return tally == null ? 0 : tally.count;
+	}
+
+	/** The mean score of the training points with the given label, or NaN if there are none. */
+	public double mean(int label) {
+		Tally tally = tallies.get(label);
+		if (tally == null) {
+			return Double.NaN;
+		}
+		return 1.0 * tally.sum / ((long) tally.count * numTestFeatures);
+	}
+
+	/**
+	 * The standard error of mean(label), treating the training points with the given label as
+	 * a random sample of such points.  This is NaN if there are fewer than two of them.
+	 */
+	public double standardError(int label) {
+		Tally tally = tallies.get(label);
+		if (tally == null || tally.count < 2) {
+			return Double.NaN;
+		}
+		double mean = 1.0 * tally.sum / tally.count;
+		double variance = (tally.sumOfSquares - mean * tally.sum) / (tally.count - 1);
+		return Math.sqrt(Math.max(0, variance) / tally.count) / numTestFeatures;
+	}
+
+	/** The highest score of the training points with the given label, or NaN if there are none. */
+	public double max(int label) {
+		Tally tally = tallies.get(label);
+		if (tally == null) {
+			return Double.NaN;
+		}
+		return score(tally.max);
+	}
+
+	/** The label of the training point with the single highest score, or -1 if there are none. */
+	public int labelWithHighestScore() {
+		return labelWithHighestScore;
+	}
+
+	/**
+	 * The labels that decide() chooses between.  If any label has a score at or above
+	 * highScoreThresh, these are exactly those labels.  Otherwise, this is every label.  The
+	 * labels are in ascending order.
+	 */
+	public List<Integer> candidates(double highScoreThresh) {
+
+		List<Integer> labelsWithHighScores = new ArrayList<>();
+		for (Integer label : labels()) {
+			if (score(tallies.get(label).max) >= highScoreThresh) {
+				labelsWithHighScores.add(label);
+			}
+		}
+		return labelsWithHighScores.isEmpty() ? labels() : labelsWithHighScores;
+	}
+
+	/**
+	 * Find the candidate label with the highest mean score.  Ties go to the smallest label, and
+	 * -1 is returned if no label has a positive mean score.
+	 */
+	public int decide(double highScoreThresh) {
+
+		int bestLabel = -1;
+		Tally best = null;
+
+		for (Integer label : candidates(highScoreThresh)) {
+			Tally tally = tallies.get(label);
+			if (best == null ? tally.sum > 0 && numTestFeatures > 0 : hasHigherMean(tally, best)) {
+				bestLabel = label;
+				best = tally;
+			}
+		}
+		return bestLabel;
+	}
+
+	/** Compare the means of two tallies exactly, by cross multiplying. */
+	private static boolean hasHigherMean(Tally tally, Tally other) {
+		return tally.sum * other.count > other.sum * tally.count;
+	}
+
+	/** Convert a number of matching features into a score between 0 and 1. */
+	private double score(int numMatchingFeatures) {
+		return 1.0 * numMatchingFeatures / numTestFeatures;
+	}
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (Integer label : labels()) {
+			if (builder.length() > 1) {
+				builder.append(", ");
+			}
+			builder.append(String.format("%d=%.3f (%d)", label, mean(label), count(label)));
+		}
+		return builder.append("}").toString();
+	}
+
+	/** Mutable per-label totals. */
+	private static final class Tally {
+		private int count;
+		private long sum;
+		private long sumOfSquares;
+		private int max;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,76 @@
+
+/**
+ * The result of BoundaryMatchingClassifier.retrieve(): the best scoring training points for a
+ * test point, best first, along with the per-label summary of every score and the label that
+ * classify() would have chosen.  This is the evidence behind a decision, for review tooling or
+ * for routing on confidence.
+ */
+public final class Retrieval {
+
+	private final BoundaryFeatureIndex index;
+	private final int[] positions;
+	private final double[] scores;
+	private final LabelScores labelScores;
+	private final int label;
+
+	/**
+	 * Constructor.  The neighbors are {numMatchingFeatures, position} pairs, best first, as
+	 * returned by TopKHeap.drain().
+	 */
+	public Retrieval(BoundaryFeatureIndex index, int[][] neighbors, LabelScores labelScores, int label) {
+
+		this.index = index;
+		this.positions = new int[neighbors.length];
+		this.scores = new double[neighbors.length];
+		this.labelScores = labelScores;
+		this.label = label;
+
+		for (int rank = 0; rank < neighbors.length; rank++) {
+			scores[rank] = 1.0 * neighbors[rank][0] / labelScores.numTestFeatures();
+			positions[rank] = neighbors[rank][1];
+		}
+	}
+
+	/** The label that classify() chooses. */
+	public int getLabel() {
+		return label;
+	}
+
+	/** The summary, per label, of the scores of every training point. */
+	public LabelScores getLabelScores() {
+		return labelScores;
+	}
+
+	/** The number of neighbors retrieved.  This is less than k if the training set is small. */
+	public int size() {
+		return positions.length;
+	}
+
+	/** Getters for the neighbor of the given rank, where rank 0 is the best. */
+	public int position(int rank) {
+		return positions[rank];
+	}
+
+	/** @throws IllegalStateException If the index doesn't keep its points. */
+	public TrainingPoint point(int rank) {
+		return index.point(positions[rank]);
+	}
+
+	public int label(int rank) {
+		return index.label(positions[rank]);
+	}
+
+	public double score(int rank) {
+		return scores[rank];
+	}
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Classified as ").append(label).append(".  ").append(labelScores).append("\n");
+		for (int rank = 0; rank < size(); rank++) {
+			builder.append(String.format("%3d: point %d, label %d, score %.3f\n", rank, position(rank), label(rank),
+				score(rank)));
+		}
+		return builder.toString();
+	}
+}
\ No newline at end of file
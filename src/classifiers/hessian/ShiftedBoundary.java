@@ -0,0 +1,94 @@
+
+/**
+ * The boundary of a test point, prepared for scoring against many training points.  The rows
+ * of the boundary are shifted in the i direction once for each offset of the shift search,
+ * when the query starts, rather than once for every training point.  Only the rows between
+ * the first and last rows with features are kept, so empty rows are never scanned.
+ *
+ * This is immutable, so a single instance can be shared by the workers of a parallel scan.
+ */
+final class ShiftedBoundary {
+
+	private final int cardinality;
+	private final int maxShift;
+
+	// The first row of the boundary with a feature.
+	private final int firstRow;
+
+	// shiftedRows[dx + maxShift][r] is row firstRow + r of the boundary, shifted by dx.
+	private final long[][] shiftedRows;
+
+	ShiftedBoundary(FeatureMask boundary, int maxShift) {
+
+		this.cardinality = boundary.cardinality();
+		this.maxShift = maxShift;
+
+		int first = 0;
+		while (first < boundary.height() && boundary.row(first) == 0) {
+			first++;
+		}
+		int last = boundary.height() - 1;
+		while (last >= first && boundary.row(last) == 0) {
+			last--;
+		}
+		this.firstRow = first;
+
+		this.shiftedRows = new long[2 * maxShift + 1][last - first + 1];
+		for (int dx = -maxShift; dx <= maxShift; dx++) {
+			for (int r = 0; r < shiftedRows[dx + maxShift].length; r++) {
+				shiftedRows[dx + maxShift][r] = FeatureMask.shiftRow(boundary.row(first + r), dx);
+			}
+		}
+	}
+
+	/** The number of features in the boundary. */
+	int cardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * The largest number of features that land on a feature of other, over every offset of the
+	 * shift search.  The offsets are tried from the smallest outwards, and the search stops as
+	 * soon as every feature matches, since no offset can do better.
+	 */
+	int bestOverlap(FeatureMask other) {
+
+		int best = 0;
+		if (cardinality == 0) {
+			return best;
+		}
+
+		for (int a = 0; a <= 2 * maxShift; a++) {
+			int dx = offset(a);
+			for (int b = 0; b <= 2 * maxShift; b++) {
+				int overlap = overlap(other, dx, offset(b));
+				if (overlap > best) {
+					best = overlap;
+					if (best == cardinality) {
+						return best;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/** Count the features that land on a feature of other once moved by (dx, dy). */
+	private int overlap(FeatureMask other, int dx, int dy) {
+
+		long[] rows = shiftedRows[dx + maxShift];
+
+		int count = 0;
+		int lo = Math.max(0, -dy - firstRow);
+		int hi = Math.min(rows.length, other.height() - dy - firstRow);
+		for (int r = lo; r < hi; r++) {
+			count += Long.bitCount(rows[r] & other.row(firstRow + r + dy));
+		}
+		return count;
+	}
+
+	/** The k'th offset in the order 0, -1, 1, -2, 2, ... */
+	private static int offset(int k) {
+		return (k & 1) == 0 ? k / 2 : -(k + 1) / 2;
+	}
+}
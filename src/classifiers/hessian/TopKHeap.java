@@ -0,0 +1,115 @@
+
+/**
+ * Keeps the k best scoring training points seen so far, by position in a BoundaryFeatureIndex.
+ * A point is better than another if it matched more features, or if it matched as many and
+ * comes first in the index, so the result doesn't depend on the order in which points are
+ * offered.
+ *
+ * This is a bounded min-heap on parallel int arrays, with the worst kept point at the root,
+ * so offering a point costs one comparison unless it makes the cut, and nothing is boxed.
+ */
+public final class TopKHeap {
+
+	private final int[] matches;
+	private final int[] positions;
+	private int size = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @throws IllegalArgumentException If k is negative.
+	 */
+	public TopKHeap(int k) {
+
+		if (k < 0) {
+			throw new IllegalArgumentException("k must be non-negative.");
+		}
+		this.matches = new int[k];
+		this.positions = new int[k];
+	}
+
+	/** The number of points kept. */
+	public int size() {
+		return size;
+	}
+
+	/** Offer the training point at the given position, which matched numMatchingFeatures. */
+	public void offer(int numMatchingFeatures, int position) {
+
+		if (size < matches.length) {
+			matches[size] = numMatchingFeatures;
+			positions[size] = position;
+			siftUp(size++);
+		}
+		else if (size > 0 && isWorse(matches[0], positions[0], numMatchingFeatures, position)) {
+			matches[0] = numMatchingFeatures;
+			positions[0] = position;
+			siftDown(0);
+		}
+	}
+
+	/** Offer every point kept by other. */
+	public void merge(TopKHeap other) {
+		for (int n = 0; n < other.size; n++) {
+			offer(other.matches[n], other.positions[n]);
+		}
+	}
+
+	/**
+	 * Return the kept points, best first, as {numMatchingFeatures, position} pairs.  This
+	 * empties the heap.
+	 */
+	public int[][] drain() {
+
+		int[][] sorted = new int[size][];
+		while (size > 0) {
+			sorted[size - 1] = new int[] {matches[0], positions[0]};
+			size--;
+			matches[0] = matches[size];
+			positions[0] = positions[size];
+			siftDown(0);
+		}
+		return sorted;
+	}
+
+	/** Is (matchesA, positionA) worse than (matchesB, positionB)? */
+	private static boolean isWorse(int matchesA, int positionA, int matchesB, int positionB) {
+		return matchesA < matchesB || (matchesA == matchesB && positionA > positionB);
+	}
+
+	private void siftUp(int n) {
+		while (n > 0) {
+			int parent = (n - 1) / 2;
+			if (!isWorse(matches[n], positions[n], matches[parent], positions[parent])) {
+				return;
+			}
+			swap(n, parent);
+			n = parent;
+		}
+	}
+
+	private void siftDown(int n) {
+		while (true) {
+			int worst = n;
+			for (int child = 2 * n + 1; child <= 2 * n + 2 && child < size; child++) {
+				if (isWorse(matches[child], positions[child], matches[worst], positions[worst])) {
+					worst = child;
+				}
+			}
+			if (worst == n) {
+				return;
+			}
+			swap(n, worst);
+			n = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int match = matches[a];
+		int position = positions[a];
+		matches[a] = matches[b];
+		positions[a] = positions[b];
+		matches[b] = match;
+		positions[b] = position;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+
+/**
+ * Front end for anytime classification.  This classifies some test points with 
+ * BoundaryMatchingClassifier.classifyWithinBudget(), and checks the labels against 
+ * BoundaryMatchingClassifier.classify() on the whole training set.
+ *
+ * The report separates the scans that stopped because the decision was settled (including
+ * exhaustive scans) from those that stopped on the budget, since only the former are expected
+ * to agree with classify().  A budget of 0 means no limit.
+ *
+ * Usage: 'java AnytimeClassificationTest [numTestPoints] [timeBudgetMillis] [maxTrainingPoints]
+ * [pathToTrainSet]'
+ */
+
+
+import java.util.*;
+import java.io.*;
+
+public class AnytimeClassificationTest {
+
+	public static void main(String[] args) throws IOException {
+
+		int numTestPoints = 100;
+		long timeBudgetMillis = 0;
+		int maxTrainingPoints = 0;
+		String path = IOUtils.PATH_TO_TRAIN_SET;
+
+		try {
+			if (args.length > 0) {
+				numTestPoints = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				timeBudgetMillis = Long.parseLong(args[1]);
+			}
+			if (args.length > 2) {
+				maxTrainingPoints = Integer.parseInt(args[2]);
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new RuntimeException("Usage: java AnytimeClassificationTest [numTestPoints] [timeBudgetMillis] "
+				+ "[maxTrainingPoints] [pathToTrainSet]");
+		}
+		if (args.length > 3) {
+			path = args[3];
+		}
+
+		long timeBudgetNanos = timeBudgetMillis <= 0 ? Long.MAX_VALUE : timeBudgetMillis * 1000000;
+		if (maxTrainingPoints <= 0) {
+			maxTrainingPoints = Integer.MAX_VALUE;
+		}
+
+		List<DigitTestPoint> testPoints = IOUtils.getFirstNTestPoints(numTestPoints);
+		BoundaryFeatureIndex index = IOUtils.getTrainingIndex(path, Runtime.getRuntime().availableProcessors());
+		BoundaryMatchingClassifier classifier = BoundaryMatchingClassifier.CLASSIFIER();
+
+		int numSettled = 0;
+		int numSettledAgreeing = 0;
+		int numSettledEarly = 0;
+		int numOnBudget = 0;
+		int numOnBudgetAgreeing = 0;
+		long numExamined = 0;
+		long anytimeNanos = 0;
+
+		for (DigitTestPoint testPoint : testPoints) {
+
+			long start = System.nanoTime();
+			AnytimeResult result = classifier.classifyWithinBudget(testPoint, index, timeBudgetNanos, maxTrainingPoints);
+			anytimeNanos += System.nanoTime() - start;
+
+			boolean agrees = result.getLabel() == classifier.classify(testPoint, index);
+			numExamined += result.getNumExamined();
+
+			if (result.isSettled()) {
+				numSettled++;
+				numSettledAgreeing += agrees ? 1 : 0;
+				numSettledEarly += result.isExhaustive() ? 0 : 1;
+			}
+			else {
+				numOnBudget++;
+				numOnBudgetAgreeing += agrees ? 1 : 0;
+				System.out.println("Stopped on the budget: " + result);
+			}
+		}
+
+		System.out.printf("Settled: %d of %d (%d before the end of the training set), of which %d agree with "
+			+ "classify().\n", numSettled, testPoints.size(), numSettledEarly, numSettledAgreeing);
+		System.out.printf("Stopped on the budget: %d of %d, of which %d agree with classify().\n", numOnBudget,
+			testPoints.size(), numOnBudgetAgreeing);
+		System.out.printf("Examined %.1f%% of the training set on average, in %.2f ms per point.\n",
+			100.0 * numExamined / ((long) testPoints.size() * Math.max(1, index.size())),
+			anytimeNanos / 1e6 / Math.max(1, testPoints.size()));
+	}
+}
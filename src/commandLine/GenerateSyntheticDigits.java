@@ -0,0 +1,56 @@
+
+/**
+ * Front end for the SyntheticDigitGenerator.  Writes a file in the same format as the Kaggle
+ * train.csv file.
+ *
+ * Usage: 'java GenerateSyntheticDigits numPoints outputPath [randomSeed] [numKaggleSeeds]'
+ * If numKaggleSeeds is given, the first numKaggleSeeds Kaggle training points are used as the
+ * seeds.  Otherwise the built in seeds are used.
+ */
+
+
+import java.util.*;
+import java.io.*;
+
+public class GenerateSyntheticDigits {
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			throw new RuntimeException("Usage: java GenerateSyntheticDigits numPoints outputPath [randomSeed] [numKaggleSeeds]");
+		}
+
+		long numPoints;
+		long randomSeed = 0;
+		int numKaggleSeeds = 0;
+
+		try {
+			numPoints = Long.parseLong(args[0]);
+			if (args.length > 2) {
+				randomSeed = Long.parseLong(args[2]);
+			}
+			if (args.length > 3) {
+				numKaggleSeeds = Integer.parseInt(args[3]);
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new RuntimeException("Illegal argument for GenerateSyntheticDigits.");
+		}
+
+		SyntheticDigitGenerator generator;
+		if (numKaggleSeeds > 0) {
+			generator = new SyntheticDigitGenerator(IOUtils.getFirstNTrainingPoints(numKaggleSeeds), randomSeed);
+		}
+		else {
+			generator = SyntheticDigitGenerator.withBuiltInSeeds(randomSeed);
+		}
+
+		long start = System.nanoTime();
+		generator.writeCsv(args[1], numPoints, true, Runtime.getRuntime().availableProcessors());
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("Wrote %d points to %s in %.1f s (%.0f points/s).\n", numPoints, args[1], seconds,
+			numPoints / seconds);
+	}
+
+}
\ No newline at end of file
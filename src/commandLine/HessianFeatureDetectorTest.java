@@ -31,7 +31,7 @@ public class HessianFeatureDetectorTest {
 			Grid grid = point.getGrid();
 			grid.print();
 			// Compute the Grid of Hessians and scale it down.
-			Grid rescaledHessian = Hessian.computeHessians(grid).rescale(99);
+			Grid rescaledHessian = point.getFeature(HessianFeatures.HESSIANS).rescale(99);
 			rescaledHessian.print();
 			
 			// Filter the grid by eliminating small values.
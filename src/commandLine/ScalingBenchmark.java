@@ -0,0 +1,262 @@
+
+/**
+ * Measures how ingestion and classification scale with the size of the training set and the
+ * number of threads, using synthetic training sets from the SyntheticDigitGenerator.
+ *
+ * For each size, a training file is generated (unless it already exists).  Then for each
+ * thread count, the file is ingested into a BoundaryFeatureIndex, and a fixed set of fresh
+ * synthetic test points is classified, with serial scans and with intra-query parallelism.
+ * The queries are classified under load (as many at once as there are threads) and when idle
+ * (one at a time), after some untimed passes to warm up, in rounds that alternate the order
+ * of the configurations.  The report has ingestion throughput, the heap used by the index,
+ * query throughput and latency percentiles under load, the median latency when idle, and
+ * accuracy.  With a single thread there is no intra-query row.
+ *
+ * Usage: 'java ScalingBenchmark [sizes] [threadCounts] [numQueries] [directory]'
+ * where sizes and threadCounts are comma separated lists, e.g. 'java ScalingBenchmark
+ * 10000,100000 1,4,8 200 /tmp'.
+ */
+
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+public class ScalingBenchmark {
+
+	// The same random seed is used for every training set, so the smaller sets are prefixes of
+	// the larger ones.
+	private static final long RANDOM_SEED = 0;
+
+	// The number of untimed passes over the queries in each configuration before it is timed,
+	// so that the JIT has compiled the scan.
+	private static final int WARM_UP_PASSES = 2;
+
+	// The number of timed passes over the queries in each configuration.
+	private static final int NUM_ROUNDS = 2;
+
+	public static void main(String[] args) throws Exception {
+
+		int numCores = Runtime.getRuntime().availableProcessors();
+
+		List<Long> sizes = Arrays.asList(10000L, 50000L);
+		List<Long> threadCounts = Arrays.asList(1L, (long) numCores);
+		int numQueries = 200;
+		String directory = ".";
+
+		try {
+			if (args.length > 0) {
+				sizes = parseList(args[0]);
+			}
+			if (args.length > 1) {
+				threadCounts = parseList(args[1]);
+			}
+			if (args.length > 2) {
+				numQueries = Integer.parseInt(args[2]);
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new RuntimeException("Usage: java ScalingBenchmark [sizes] [threadCounts] [numQueries] [directory]");
+		}
+		if (args.length > 3) {
+			directory = args[3];
+		}
+
+		SyntheticDigitGenerator generator = SyntheticDigitGenerator.withBuiltInSeeds(RANDOM_SEED);
+
+		System.out.printf("%10s %8s %12s %10s %12s %10s %10s %10s %10s %10s %10s %9s\n", "size", "threads", "scan",
+			"ingest s", "ingest pt/s", "heap MB", "query/s", "p50 ms", "p95 ms", "p99 ms", "idle p50", "accuracy");
+
+		for (long size : sizes) {
+
+			File file = new File(directory, "synthetic-" + size + ".csv");
+			if (!file.exists()) {
+				generator.writeCsv(file.getPath(), size, true, numCores);
+			}
+
+			// The queries are the points that come after the training set.
+			List<DigitTrainingPoint> queries = new ArrayList<>();
+			for (int q = 0; q < numQueries; q++) {
+				queries.add(generator.generate(size + q));
+			}
+
+			for (long threadCount : threadCounts) {
+				run(file.getPath(), size, (int) threadCount, queries);
+			}
+		}
+	}
+
+	/**
+	 * Ingest the file with numThreads threads, and then classify the queries, both with serial
+	 * scans and with intra-query parallelism.  Print a line for each.  With a single thread,
+	 * intra-query parallelism is a serial scan with extra overhead, so it is left out.
+	 *
+	 * Each configuration (a classifier, under load or idle) is warmed up, and then timed in
+	 * several rounds.  The order of the configurations alternates from round to round, so that
+	 * none of them is always measured first (e.g. before the garbage collector has settled).
+	 */
+	private static void run(String path, long size, int numThreads, List<DigitTrainingPoint> queries)
+		throws Exception {
+
+		long heapBefore = usedHeap();
+
+		long start = System.nanoTime();
+		BoundaryFeatureIndex index = IOUtils.getTrainingIndex(path, numThreads);
+		double ingestSeconds = (System.nanoTime() - start) / 1e9;
+
+		double heapMegabytes = (usedHeap() - heapBefore) / 1e6;
+
+		IntraQueryParallelism parallelism = new IntraQueryParallelism(numThreads);
+
+		try {
+			List<BoundaryMatchingClassifier> classifiers = new ArrayList<>();
+			classifiers.add(BoundaryMatchingClassifier.CLASSIFIER());
+			if (numThreads > 1) {
+				classifiers.add(classifiers.get(0).withIntraQueryParallelism(parallelism));
+			}
+
+			// Under load, numThreads queries run at once, and when idle, they run one at a time.
+			// With a single thread these are the same.
+			List<Integer> clientCounts = numThreads > 1 ? Arrays.asList(numThreads, 1) : Arrays.asList(1);
+
+			for (BoundaryMatchingClassifier classifier : classifiers) {
+				for (int numClients : clientCounts) {
+					for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+						classifyAll(classifier, index, queries, numClients, new long[queries.size()],
+							new int[queries.size()]);
+					}
+				}
+			}
+
+			Measurement[][] measurements = new Measurement[classifiers.size()][clientCounts.size()];
+			for (int c = 0; c < classifiers.size(); c++) {
+				for (int n = 0; n < clientCounts.size(); n++) {
+					measurements[c][n] = new Measurement(NUM_ROUNDS * queries.size());
+				}
+			}
+
+			for (int round = 0; round < NUM_ROUNDS; round++) {
+				for (int i = 0; i < classifiers.size(); i++) {
+					int c = (i + round) % classifiers.size();
+					for (int j = 0; j < clientCounts.size(); j++) {
+						int n = (j + round) % clientCounts.size();
+
+						long[] latencies = new long[queries.size()];
+						int[] labels = new int[queries.size()];
+						double seconds = classifyAll(classifiers.get(c), index, queries, clientCounts.get(n), latencies,
+							labels);
+						measurements[c][n].add(seconds, latencies, labels, queries);
+					}
+				}
+			}
+
+			for (int c = 0; c < classifiers.size(); c++) {
+
+				Measurement loaded = measurements[c][0];
+				Measurement idle = measurements[c][clientCounts.size() - 1];
+
+				System.out.printf("%10d %8d %12s %10.2f %12.0f %10.1f %10.1f %10.2f %10.2f %10.2f %10.2f %9.3f\n",
+					size, numThreads, c == 0 ? "serial" : "intra-query", ingestSeconds, index.size() / ingestSeconds,
+					heapMegabytes, loaded.throughput(), loaded.percentile(0.5), loaded.percentile(0.95),
+					loaded.percentile(0.99), idle.percentile(0.5), loaded.accuracy());
+			}
+		}
+		finally {
+			parallelism.shutdown();
+		}
+	}
+
+	/**
+	 * Classify the queries, with numClients queries running at once.  The latency and label
+	 * of each query are recorded, and the elapsed time in seconds is returned.
+	 *
+	 * The shared FeatureStore is cleared first, so that every pass computes the boundaries of
+	 * its queries, just as it would for fresh test points.  The index doesn't use the store.
+	 */
+	private static double classifyAll(final BoundaryMatchingClassifier classifier, final BoundaryFeatureIndex index,
+		final List<DigitTrainingPoint> queries, int numClients, final long[] latencies, final int[] labels)
+		throws Exception {
+
+		FeatureStore.SHARED.clear();
+
+		ExecutorService clients = Executors.newFixedThreadPool(numClients);
+		List<Future<?>> results = new ArrayList<>();
+
+		long start = System.nanoTime();
+		for (int q = 0; q < queries.size(); q++) {
+			final int query = q;
+			results.add(clients.submit(new Runnable() {
+				public void run() {
+					long queryStart = System.nanoTime();
+					FeatureMask testFeatures = queries.get(query).getFeature(BoundaryMatchingClassifier.BOUNDARY);
+					labels[query] = BoundaryMatchingClassifier.decide(classifier.scan(testFeatures, index));
+					latencies[query] = System.nanoTime() - queryStart;
+				}
+			}));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		clients.shutdown();
+
+		return seconds;
+	}
+
+
+	/** The heap in use, after encouraging a garbage collection. */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int k = 0; k < 3; k++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static List<Long> parseList(String list) {
+		List<Long> values = new ArrayList<>();
+		for (String value : list.split(",")) {
+			values.add(Long.parseLong(value.trim()));
+		}
+		return values;
+	}
+
+	/** The timings and results of one configuration, accumulated over the rounds. */
+	private static final class Measurement {
+
+		private final long[] latencies;
+		private int numQueries = 0;
+		private int numCorrect = 0;
+		private double seconds = 0;
+
+		private Measurement(int maxQueries) {
+			latencies = new long[maxQueries];
+		}
+
+		private void add(double seconds, long[] latencies, int[] labels, List<DigitTrainingPoint> queries) {
+			for (int q = 0; q < queries.size(); q++) {
+				this.latencies[numQueries++] = latencies[q];
+				if (labels[q] == queries.get(q).getLabel()) {
+					numCorrect++;
+				}
+			}
+			this.seconds += seconds;
+		}
+
+		private double throughput() {
+			return numQueries / seconds;
+		}
+
+		private double accuracy() {
+			return numCorrect * 1.0 / numQueries;
+		}
+
+		/** The given percentile of the latencies, in milliseconds. */
+		private double percentile(double fraction) {
+			long[] sorted = Arrays.copyOf(latencies, numQueries);
+			Arrays.sort(sorted);
+			int position = (int) Math.ceil(fraction * sorted.length) - 1;
+			return sorted[Math.max(0, position)] / 1e6;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+
+/**
+ * Front end for sharded classification on a single machine.  This starts a ShardServer process
+ * for each shard of the training set, classifies some test points through a ShardCoordinator,
+ * and checks the labels against BoundaryMatchingClassifier on the whole training set.
+ *
+ * Usage: 'java ShardedClassificationTest [numShards] [numTestPoints] [pathToTrainSet]'
+ */
+
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+
+public class ShardedClassificationTest {
+
+	public static void main(String[] args) throws IOException {
+
+		int numShards = 2;
+		int numTestPoints = 100;
+		String path = IOUtils.PATH_TO_TRAIN_SET;
+
+		try {
+			if (args.length > 0) {
+				numShards = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				numTestPoints = Integer.parseInt(args[1]);
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new RuntimeException("Usage: java ShardedClassificationTest [numShards] [numTestPoints] [pathToTrainSet]");
+		}
+		if (args.length > 2) {
+			path = args[2];
+		}
+
+		List<DigitTestPoint> testPoints = IOUtils.getFirstNTestPoints(numTestPoints);
+
+		// Split the cores between the shard processes.
+		int threadsPerShard = Math.max(1, Runtime.getRuntime().availableProcessors() / numShards);
+
+		List<Process> servers = new ArrayList<>();
+
+		try {
+			List<InetSocketAddress> addresses = new ArrayList<>();
+			for (int shard = 0; shard < numShards; shard++) {
+				Process server = startServer(path, shard, numShards, threadsPerShard);
+				servers.add(server);
+				addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), readPort(server)));
+			}
+
+			long start = System.nanoTime();
+			List<Integer> shardedLabels;
+			try (ShardCoordinator coordinator = new ShardCoordinator(addresses, 0)) {
+				shardedLabels = coordinator.classify(testPoints);
+			}
+			long shardedMillis = (System.nanoTime() - start) / 1000000;
+
+			// Now classify the same points on the whole training set, in this process.
+			BoundaryFeatureIndex index = IOUtils.getTrainingIndex(path, Runtime.getRuntime().availableProcessors());
+			Classifier classifier = BoundaryMatchingClassifier.CLASSIFIER();
+
+			start = System.nanoTime();
+			int numAgreeing = 0;
+			for (int p = 0; p < testPoints.size(); p++) {
+				if (classifier.classify(testPoints.get(p), index) == shardedLabels.get(p)) {
+					numAgreeing++;
+				}
+			}
+			long localMillis = (System.nanoTime() - start) / 1000000;
+
+			System.out.printf("%d shards: %d ms.  Single process: %d ms.\n", numShards, shardedMillis, localMillis);
+			System.out.printf("%d of %d labels agree.\n", numAgreeing, testPoints.size());
+		}
+		finally {
+			for (Process server : servers) {
+				server.destroy();
+			}
+		}
+	}
+
+	/** Start a ShardServer in a new JVM, with the same class path as this one. */
+	private static Process startServer(String path, int shard, int numShards, int numThreads) throws IOException {
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+			"ShardServer", path, "" + shard, "" + numShards, "0", "" + numThreads);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+		return builder.start();
+	}
+
+	/**
+	 * Wait for a ShardServer to load its shard, and return the port it is listening on.  This is
+	 * the last word of the first line that the server prints.
+	 */
+	private static int readPort(Process server) throws IOException {
+
+		String line = new BufferedReader(new InputStreamReader(server.getInputStream())).readLine();
+
+		if (line == null) {
+			throw new IOException("The shard server exited before it was ready.");
+		}
+		System.out.println(line);
+
+		String[] words = line.trim().split(" ");
+		return Integer.parseInt(words[words.length - 1]);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+
+/**
+ * Compares two ways of making the BoundaryMatching classifier tolerant of small translations:
+ * augmenting the training set with shifted copies of every training point, and searching over
+ * shifts of the test point with BoundaryMatchingClassifier.CLASSIFIER(maxShift).  The unshifted
+ * classifier on the original training set is included as a reference.
+ *
+ * Only the query scans are timed.  Each training set is built into a BoundaryFeatureIndex, and
+ * the boundaries of the test points are computed, before the timing starts.  Otherwise the 
+ * cost of the Hessians would swamp the cost of the overlaps being compared.  Each 
+ * configuration gets untimed warm up passes, and the time reported is the median of several
+ * timed passes.
+ *
+ * Usage: 'java ShiftSearchBenchmark [numPoints] [maxShift]'
+ */
+
+
+import java.util.*;
+import java.io.*;
+
+public class ShiftSearchBenchmark {
+
+	/** The fraction of the points that are held out and classified. */
+	private static final double TEST_PERCENTAGE = 0.2;
+
+	/** The number of untimed and timed passes over the test points for each configuration. */
+	private static final int NUM_WARM_UP_PASSES = 5;
+	private static final int NUM_TIMED_PASSES = 5;
+
+	public static void main(String[] args) {
+
+		int numPoints = 500;
+		int maxShift = 1;
+
+		try {
+			if (args.length > 0) {
+				numPoints = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				maxShift = Integer.parseInt(args[1]);
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new RuntimeException("Usage: java ShiftSearchBenchmark [numPoints] [maxShift]");
+		}
+
+		List<DigitTrainingPoint> data = new ArrayList<>();
+
+		try {
+			data = IOUtils.getFirstNTrainingPoints(numPoints);
+		}
+		catch(Exception e) {
+			throw new RuntimeException("Unable to read the training data.", e);
+		}
+
+		// Hold out a fixed set of points, so that every run sees the same split.
+		int numToTest = (int) (data.size() * TEST_PERCENTAGE);
+		List<DigitTrainingPoint> testSet = data.subList(0, numToTest);
+		List<TrainingPoint> trainingSet = new ArrayList<TrainingPoint>(data.subList(numToTest, data.size()));
+		List<TrainingPoint> augmentedSet = augment(trainingSet, maxShift);
+
+		BoundaryFeatureIndex trainingIndex = BoundaryFeatureIndex.build(trainingSet);
+		BoundaryFeatureIndex augmentedIndex = BoundaryFeatureIndex.build(augmentedSet);
+
+		List<FeatureMask> testFeatures = new ArrayList<>();
+		for (DigitTrainingPoint point : testSet) {
+			testFeatures.add(point.getFeature(BoundaryMatchingClassifier.BOUNDARY));
+		}
+
+		String baseline = run("unshifted", BoundaryMatchingClassifier.CLASSIFIER(), testSet, testFeatures,
+			trainingIndex);
+		String augmented = run("augmented (" + augmentedSet.size() + " points)",
+			BoundaryMatchingClassifier.CLASSIFIER(), testSet, testFeatures, augmentedIndex);
+		String shiftSearch = run("shift search (maxShift " + maxShift + ")",
+			BoundaryMatchingClassifier.CLASSIFIER(maxShift), testSet, testFeatures, trainingIndex);
+
+		System.out.println(baseline);
+		System.out.println(augmented);
+		System.out.println(shiftSearch);
+	}
+
+	/**
+	 * Classify every point in testSet, given its precomputed features, and return a line
+	 * describing the accuracy and the time taken by the scans.
+	 */
+	private static String run(String name, BoundaryMatchingClassifier classifier, List<DigitTrainingPoint> testSet,
+		List<FeatureMask> testFeatures, BoundaryFeatureIndex index) {
+
+		// Warm up, so that the timed passes aren't paying for class loading and compilation.
+		int[] labels = null;
+		for (int pass = 0; pass < NUM_WARM_UP_PASSES; pass++) {
+			labels = classifyAll(classifier, testFeatures, index);
+		}
+
+		long[] elapsed = new long[NUM_TIMED_PASSES];
+		for (int pass = 0; pass < NUM_TIMED_PASSES; pass++) {
+			long start = System.nanoTime();
+			classifyAll(classifier, testFeatures, index);
+			elapsed[pass] = System.nanoTime() - start;
+		}
+		Arrays.sort(elapsed);
+		double elapsedMillis = elapsed[NUM_TIMED_PASSES / 2] / 1e6;
+
+		int correct = 0;
+		for (int p = 0; p < testSet.size(); p++) {
+			if (labels[p] == testSet.get(p).getLabel()) {
+				correct++;
+			}
+		}
+
+		return String.format("%-40s score: %.3f  time: %.0f ms  (%.3f ms per point)", name,
+			correct * 1.0 / testSet.size(), elapsedMillis, elapsedMillis * 1.0 / testSet.size());
+	}
+
+	private static int[] classifyAll(BoundaryMatchingClassifier classifier, List<FeatureMask> testFeatures,
+		BoundaryFeatureIndex index) {
+
+		int[] labels = new int[testFeatures.size()];
+		for (int p = 0; p < labels.length; p++) {
+			labels[p] = BoundaryMatchingClassifier.decide(classifier.scan(testFeatures.get(p), index));
+		}
+		return labels;
+	}
+
+	/**
+	 * Build the augmented training set, containing a copy of every training point shifted by
+	 * (dx, dy) for each |dx|, |dy| at most maxShift.
+	 */
+	private static List<TrainingPoint> augment(List<TrainingPoint> trainingSet, int maxShift) {
+
+		List<TrainingPoint> augmented = new ArrayList<>();
+
+		for (TrainingPoint point : trainingSet) {
+			Grid grid = ((GriddyTrainingPoint) point).getGrid();
+			for (int dx = -maxShift; dx <= maxShift; dx++) {
+				for (int dy = -maxShift; dy <= maxShift; dy++) {
+					augmented.add(new DigitTrainingPoint(grid.shift(dx, dy), point.getLabel()));
+				}
+			}
+		}
+		return augmented;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,50 @@
+
+/**
+ * Identifies a feature that can be derived from a Grid, such as its Hessians or the mask of
+ * its boundary, together with the parameters used to derive it.  Keys with the same name and
+ * parameters are equal, so a FeatureStore can share a feature between everyone that asks for
+ * it, no matter where their keys came from.
+ *
+ * The name must be unique to the computation, i.e. two keys with the same name and parameters
+ * must compute the same feature.
+ */
+import java.util.*;
+
+public abstract class FeatureKey<T> {
+
+	private final String name;
+	private final Object[] parameters;
+
+	/** Constructor.  The parameters must have sensible equals() and hashCode() methods. */
+	protected FeatureKey(String name, Object... parameters) {
+		this.name = name;
+		this.parameters = parameters.clone();
+	}
+
+	/**
+	 * Compute the feature of a grid.  Any features that this one is derived from should be
+	 * looked up in store, so that they are shared too.
+	 */
+	public abstract T compute(Grid grid, FeatureStore store);
+
+	/** Estimate the memory used by a feature, so that a FeatureStore can stay within its budget. */
+	public abstract long sizeInBytes(T feature);
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof FeatureKey)) {
+			return false;
+		}
+		FeatureKey<?> that = (FeatureKey<?>) other;
+		return name.equals(that.name) && Arrays.equals(parameters, that.parameters);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * name.hashCode() + Arrays.hashCode(parameters);
+	}
+
+	public String toString() {
+		return name + Arrays.toString(parameters);
+	}
+}
\ No newline at end of file
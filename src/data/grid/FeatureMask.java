@@ -0,0 +1,205 @@
+
+/**
+ * Compact representation of the set of feature locations in a Grid.  Each row of the grid is
+ * packed into the bits of a single long, so bit i of row j is set exactly when the index (i, j)
+ * is a feature.  This limits the width of the grid to 64, which is plenty for the digit data.
+ *
+ * Packing the rows means that neighborhood and overlap computations are a few word operations
+ * per row, rather than a loop over Lists of Grid.Index objects.
+ */
+import java.util.*;
+import java.io.*;
+
+public final class FeatureMask {
+
+	/** The widest grid that fits in a single long per row. */
+	public static final int MAX_WIDTH = 64;
+
+	private final long[] rows;
+	private final int width;
+
+	// The number of features in the mask, computed once since it is needed for every score.
+	private final int cardinality;
+
+	/**
+	 * Constructor.  Bits at or beyond width in any of the rows are ignored.
+	 *
+	 * @throws IllegalArgumentException If width is not between 1 and MAX_WIDTH.
+	 */
+	public FeatureMask(int width, long[] rows) {
+
+		if (width <= 0 || width > MAX_WIDTH) {
+			throw new IllegalArgumentException("width must be between 1 and " + MAX_WIDTH + ".");
+		}
+
+		long widthMask = widthMask(width);
+		int count = 0;
+
+		this.rows = new long[rows.length];
+		for (int j = 0; j < rows.length; j++) {
+			this.rows[j] = rows[j] & widthMask;
+			count += Long.bitCount(this.rows[j]);
+		}
+		this.width = width;
+		this.cardinality = count;
+	}
+
+	/** Getters. */
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return rows.length;
+	}
+
+	/** The number of features in this mask. */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	/** Row j of the mask, with bit i set exactly when (i, j) is a feature. */
+	public long row(int j) {
+		return rows[j];
+	}
+
+	/** Is the index (i, j) a feature? */
+	public boolean contains(int i, int j) {
+		assert(i >= 0 && i < width());
+		assert(j >= 0 && j < height());
+
+		return (rows[j] >>> i & 1L) != 0;
+	}
+
+	/**
+	 * Return a new mask containing every index that is within dist of a feature of this mask, in
+	 * the sense of Grid.Index.neighborOf().  Indices that fall outside of the grid are dropped.
+	 */
+	public FeatureMask dilate(int dist) {
+
+		assert(dist >= 0);
+
+		long widthMask = widthMask(width);
+
+		// First smear each row horizontally...
+		long[] horizontal = new long[rows.length];
+		for (int j = 0; j < rows.length; j++) {
+			long row = rows[j];
+			for (int d = 0; d < dist; d++) {
+				row |= (row << 1) | (row >>> 1);
+			}
+			horizontal[j] = row & widthMask;
+		}
+
+		// ...then combine the nearby rows vertically.
+		long[] dilated = new long[rows.length];
+		for (int j = 0; j < rows.length; j++) {
+			int lo = Math.max(0, j - dist);
+			int hi = Math.min(rows.length - 1, j + dist);
+			for (int k = lo; k <= hi; k++) {
+				dilated[j] |= horizontal[k];
+			}
+		}
+		return new FeatureMask(width, dilated);
+	}
+
+	/** Count the features that this mask has in common with other. */
+	public int overlap(FeatureMask other) {
+		return overlap(other, 0, 0);
+	}
+
+	/**
+	 * Count the features of this mask that land on a feature of other once they have been
+	 * moved by dx in the i direction and dy in the j direction.  The rows are shifted on the 
+	 * fly, so nothing is allocated.
+	 */
+	public int overlap(FeatureMask other, int dx, int dy) {
+
+		int count = 0;
+
+		int lo = Math.max(0, -dy);
+		int hi = Math.min(rows.length, other.rows.length - dy);
+		for (int j = lo; j < hi; j++) {
+			count += Long.bitCount(shiftRow(rows[j], dx) & other.rows[j + dy]);
+		}
+		return count;
+	}
+
+	/**
+	 * Shift a packed row by dx bits.  Bits pushed past the width of the grid are left in place,
+	 * but they never match anything since every mask clears them on construction.
+	 */
+	static long shiftRow(long row, int dx) {
+		if (dx >= MAX_WIDTH || dx <= -MAX_WIDTH) {
+			return 0L;
+		}
+		return dx >= 0 ? row << dx : row >>> -dx;
+	}
+
+	/** A long with the lowest width bits set. */
+	private static long widthMask(int width) {
+		return width == MAX_WIDTH ? -1L : (1L << width) - 1;
+	}
+
+	/** Write this mask to a stream, in a form that read() understands. */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(width);
+		out.writeInt(rows.length);
+		for (long row : rows) {
+			out.writeLong(row);
+		}
+	}
+	
+	/**
+	 * Read a mask that was written by write(), which must have the given dimensions.  This 
+	 * checks the dimensions before reading the rows, so it is safe to use on untrusted input.
+	 *
+	 * @throws IOException If the mask has other dimensions, or there are problems reading the 
+	 * stream.
+	 */
+	public static FeatureMask read(DataInput in, int width, int height) throws IOException {
+		int actualWidth = in.readInt();
+		int actualHeight = in.readInt();
+		if (actualWidth != width || actualHeight != height) {
+			throw new IOException(String.format("Expected a %dx%d mask, but got %dx%d.", width, height, 
+				actualWidth, actualHeight));
+		}
+		return new FeatureMask(width, readRows(in, height));
+	}
+
+	private static long[] readRows(DataInput in, int height) throws IOException {
+		long[] rows = new long[height];
+		for (int j = 0; j < rows.length; j++) {
+			rows[j] = in.readLong();
+		}
+		return rows;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof FeatureMask)) {
+			return false;
+		}
+		FeatureMask that = (FeatureMask) other;
+		return width == that.width && Arrays.equals(rows, that.rows);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * width + Arrays.hashCode(rows);
+	}
+
+	/**
+	 * Print a FeatureMask to the screen, in the same orientation as Grid.print().
+	 */
+	public void print() {
+
+		for (int j = 0; j < height(); j++) {
+			for (int i = 0; i < width(); i++) {
+				System.out.print(contains(i, j) ? " X " : " . ");
+			}
+			System.out.printf("\n");
+		}
+		System.out.printf("\n");
+	}
+}
\ No newline at end of file
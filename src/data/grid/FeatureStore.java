@@ -0,0 +1,245 @@
+
+/**
+ * A memory bounded cache of features derived from Grids (see FeatureKey).  Each feature of
+ * each grid is computed at most once while it stays in the store, however many classifiers or
+ * threads ask for it.  If several threads ask for the same missing feature at once, one of
+ * them computes it and the others wait for the result.
+ *
+ * Grids are identified by identity, not by their values.  They have no mutators, so a feature
+ * can never go stale.
+ *
+ * The store evicts the least recently used features once their estimated size exceeds its
+ * budget.  Each entry holds on to its grid, so an entry's size includes the grid and the
+ * bookkeeping, not just the feature.  A grid with several features is counted once for each,
+ * so the estimate errs on the side of evicting too early.
+ *
+ * The store is split into independently locked segments, each with an equal share of the
+ * budget, so that concurrent lookups rarely wait on each other.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public final class FeatureStore {
+
+	/** The store that GriddyTestPoint.getFeature() uses, which may use an eighth of the heap. */
+	public static final FeatureStore SHARED = new FeatureStore(Runtime.getRuntime().maxMemory() / 8);
+
+	private static final int NUM_SEGMENTS = 16;
+
+	// An estimate of the heap used by the bookkeeping for each entry: the map entry, the keys,
+	// the entry itself, and the task that computes the feature.
+	private static final long ENTRY_OVERHEAD_IN_BYTES = 200;
+
+	private final List<Segment> segments = new ArrayList<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @throws IllegalArgumentException If budgetInBytes is not positive.
+	 */
+	public FeatureStore(long budgetInBytes) {
+
+		if (budgetInBytes <= 0) {
+			throw new IllegalArgumentException("budgetInBytes must be positive.");
+		}
+		for (int s = 0; s < NUM_SEGMENTS; s++) {
+			segments.add(new Segment(Math.max(1, budgetInBytes / NUM_SEGMENTS)));
+		}
+	}
+
+	/**
+	 * Return the feature of the grid identified by key, computing it if it isn't in the store.
+	 */
+	public <T> T get(final Grid grid, final FeatureKey<T> key) {
+
+		Key storeKey = new Key(grid, key);
+		Segment segment = segments.get((storeKey.hashCode() & Integer.MAX_VALUE) % NUM_SEGMENTS);
+
+		Entry entry;
+		boolean computeHere = false;
+
+		synchronized (segment) {
+			entry = segment.entries.get(storeKey);
+			if (entry == null) {
+				entry = new Entry(new FutureTask<Object>(new Callable<Object>() {
+					public Object call() {
+						return key.compute(grid, FeatureStore.this);
+					}
+				}));
+				segment.entries.put(storeKey, entry);
+				computeHere = true;
+			}
+		}
+
+		if (!computeHere) {
+			hits.incrementAndGet();
+			return cast(key, get(entry));
+		}
+
+		misses.incrementAndGet();
+
+		// Compute outside of the lock, so that other features (including any that this one
+		// depends on) can be looked up in the meantime.
+		entry.feature.run();
+
+		T feature;
+		try {
+			feature = cast(key, get(entry));
+		}
+		catch (RuntimeException e) {
+			// Don't keep the failure, so that the next lookup tries again.
+			synchronized (segment) {
+				if (segment.entries.get(storeKey) == entry) {
+					segment.entries.remove(storeKey);
+				}
+			}
+			throw e;
+		}
+
+		synchronized (segment) {
+			// The entry is gone if the store was cleared in the meantime.
+			if (segment.entries.get(storeKey) == entry) {
+				entry.sizeInBytes = key.sizeInBytes(feature) + grid.sizeInBytes() + ENTRY_OVERHEAD_IN_BYTES;
+				segment.sizeInBytes += entry.sizeInBytes;
+				evict(segment);
+			}
+		}
+		return feature;
+	}
+
+	/** Getters for the counters. */
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long evictions() {
+		return evictions.get();
+	}
+
+	/** The estimated size of the entries in the store, i.e. the features and their grids. */
+	public long sizeInBytes() {
+		long size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.sizeInBytes;
+			}
+		}
+		return size;
+	}
+
+	/** Remove every feature.  The counters are left alone. */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.entries.clear();
+				segment.sizeInBytes = 0;
+			}
+		}
+	}
+
+	public String toString() {
+		return String.format("FeatureStore(%d bytes, hits: %d, misses: %d, evictions: %d)", sizeInBytes(), hits(),
+			misses(), evictions());
+	}
+
+	/**
+	 * Remove least recently used features until the segment is within its budget.  Features
+	 * that are still being computed have no size yet, and are left alone.
+	 */
+	private void evict(Segment segment) {
+
+		Iterator<Entry> entries = segment.entries.values().iterator();
+		while (segment.sizeInBytes > segment.budgetInBytes && entries.hasNext()) {
+			Entry eldest = entries.next();
+			if (eldest.feature.isDone()) {
+				segment.sizeInBytes -= eldest.sizeInBytes;
+				entries.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/** Wait for a feature, rethrowing any failure unchecked. */
+	private static Object get(Entry entry) {
+		try {
+			return entry.feature.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Unable to compute the feature.", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the feature.", e);
+		}
+	}
+
+	/** The key's compute() method returned a T, so this cast is safe. */
+	@SuppressWarnings("unchecked")
+	private static <T> T cast(FeatureKey<T> key, Object feature) {
+		return (T) feature;
+	}
+
+	/** A share of the store, with its own lock and budget. */
+	private static final class Segment {
+
+		// In order of least recent use.
+		private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+		private final long budgetInBytes;
+		private long sizeInBytes = 0;
+
+		private Segment(long budgetInBytes) {
+			this.budgetInBytes = budgetInBytes;
+		}
+	}
+
+	/** A feature, which may still be being computed. */
+	private static final class Entry {
+
+		private final FutureTask<Object> feature;
+		private long sizeInBytes = 0;
+
+		private Entry(FutureTask<Object> feature) {
+			this.feature = feature;
+		}
+	}
+
+	/** Identifies a feature of a particular grid. */
+	private static final class Key {
+
+		private final Grid grid;
+		private final FeatureKey<?> featureKey;
+		private final int hash;
+
+		private Key(Grid grid, FeatureKey<?> featureKey) {
+			this.grid = grid;
+			this.featureKey = featureKey;
+			this.hash = 31 * System.identityHashCode(grid) + featureKey.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) other;
+			return grid == that.grid && featureKey.equals(that.featureKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
\ No newline at end of file
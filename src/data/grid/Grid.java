@@ -89,6 +89,11 @@ public class Grid {
 		return this.height;
 	}
 	
+	/** Estimate the heap used by the grid, including object and array headers. */
+	public long sizeInBytes() {
+		return 40 + 16 + 4L * width + width * (16 + 4L * height);
+	}
+	
 	public int valueAt(int i, int j) {
 		assert(i >= 0  && i <width());
 		assert(j >= 0 && j < height());
@@ -193,6 +198,45 @@ public class Grid {
 		return indices;
 	}
 	
+	/**
+	 * Extract the values in the grid whose absolute value is at least threshold, packed into
+	 * a FeatureMask.  This contains the same indices as extractFeatureIndices(threshold).
+	 */
+	public FeatureMask extractFeatureMask(int threshold) {
+	
+		long[] rows = new long[height()];
+		
+		for (int i = 0 ; i < width(); i++) {
+			for (int j = 0; j < height(); j++) {
+				if (Math.abs(valueAt(i, j)) >= threshold) {
+					rows[j] |= 1L << i;
+				}
+			}
+		}
+		return new FeatureMask(width(), rows);
+	}
+	
+	/**
+	 * Return a new Grid with every value moved by dx in the i direction and dy in the j 
+	 * direction.  Values that are moved off of the grid are lost, and the vacated entries
+	 * are set to 0.
+	 */
+	public Grid shift(int dx, int dy) {
+	
+		int[][] shifted = new int[width()][height()];
+		
+		for (int i = 0; i < width(); i++) {
+			for (int j = 0; j < height(); j++) {
+				int targetI = i + dx;
+				int targetJ = j + dy;
+				if (targetI >= 0 && targetI < width() && targetJ >= 0 && targetJ < height()) {
+					shifted[targetI][targetJ] = valueAt(i, j);
+				}
+			}
+		}
+		return new Grid(shifted);
+	}
+	
 	/**
 	 * Inner class to represent an 'index' in a grid.  It is annoying to have to always pass around
 	 * two values when specifying locations in a grid, and this class helps make that less
@@ -7,4 +7,12 @@ public interface GriddyTestPoint extends TestPoint {
 	/** Return the underlying grid. */
 	public Grid getGrid();
 	
+	/**
+	 * Return a feature derived from the grid, such as its Hessians.  Features are kept in the
+	 * shared FeatureStore, so each is computed once however many classifiers ask for it.
+	 */
+	public default <T> T getFeature(FeatureKey<T> key) {
+		return FeatureStore.SHARED.get(getGrid(), key);
+	}
+	
 }
\ No newline at end of file
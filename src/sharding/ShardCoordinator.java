@@ -0,0 +1,229 @@
+
+/**
+ * Classifies test points against a training set that has been split into shards, each of
+ * which is served by a ShardServer (usually in its own process, possibly on its own machine).
+ *
+ * Each batch of test points is sent to every shard at once, and the LabelScores that come
+ * back are merged in shard order.  LabelScores merge exactly, so for shards that partition a
+ * training file in order, the decisions are exactly the decisions that
+ * BoundaryMatchingClassifier.classify() makes on a BoundaryFeatureIndex of the whole file.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+
+public final class ShardCoordinator implements Closeable {
+
+	/** How long to wait for a shard to accept a connection, or to answer a request. */
+	public static final int DEFAULT_TIMEOUT_MILLIS = 60000;
+
+	private final List<Connection> shards = new ArrayList<>();
+	private final int maxShift;
+	private final ExecutorService fanOut;
+
+	/**
+	 * Connect to the shards, which must be listed in shard order, with the default timeout.
+	 *
+	 * @throws IOException If any of the shards can't be reached.
+	 */
+	public ShardCoordinator(List<InetSocketAddress> shardAddresses, int maxShift) throws IOException {
+		this(shardAddresses, maxShift, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Connect to the shards, which must be listed in shard order.  A shard that takes longer
+	 * than timeoutMillis to accept the connection, or to send any part of an answer, has 
+	 * failed.  The timeout must allow for scoring ShardServer.MAX_BATCH_SIZE test points.
+	 *
+	 * @throws IOException If any of the shards can't be reached.
+	 */
+	public ShardCoordinator(List<InetSocketAddress> shardAddresses, int maxShift, int timeoutMillis)
+		throws IOException {
+
+		if (maxShift < 0) {
+			throw new IllegalArgumentException("maxShift must be non-negative.");
+		}
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("timeoutMillis must be positive.");
+		}
+
+		this.maxShift = maxShift;
+		this.fanOut = Executors.newFixedThreadPool(Math.max(1, shardAddresses.size()));
+
+		try {
+			for (InetSocketAddress address : shardAddresses) {
+				shards.add(new Connection(address, timeoutMillis));
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Classify a batch of test points.  The labels are in the same order as the test points.
+	 *
+	 * @throws IOException If there are problems communicating with any of the shards.  The
+	 * connection to that shard is then closed, and every later request fails too.
+	 */
+	public List<Integer> classify(List<? extends TestPoint> testPoints) throws IOException {
+
+		List<FeatureMask> testFeatures = new ArrayList<>();
+		for (TestPoint testPoint : testPoints) {
+			testFeatures.add(((GriddyTestPoint) testPoint).getFeature(BoundaryMatchingClassifier.BOUNDARY));
+		}
+
+		List<Integer> labels = new ArrayList<>();
+		for (LabelScores scores : scores(testFeatures)) {
+			labels.add(BoundaryMatchingClassifier.decide(scores));
+		}
+		return labels;
+	}
+
+	/**
+	 * Score a batch of test points against the whole training set, by merging the scores from
+	 * each of the shards.
+	 *
+	 * @throws IOException If there are problems communicating with any of the shards.
+	 */
+	public List<LabelScores> scores(final List<FeatureMask> testFeatures) throws IOException {
+
+		// Scatter...
+		List<Future<List<LabelScores>>> results = new ArrayList<>();
+		for (final Connection shard : shards) {
+			results.add(fanOut.submit(new Callable<List<LabelScores>>() {
+				public List<LabelScores> call() throws IOException {
+					return shard.scores(testFeatures, maxShift);
+				}
+			}));
+		}
+
+		// ...and gather.
+		List<LabelScores> merged = new ArrayList<>();
+		for (FeatureMask mask : testFeatures) {
+			merged.add(new LabelScores(mask.cardinality()));
+		}
+
+		for (Future<List<LabelScores>> result : results) {
+			List<LabelScores> shardScores;
+			try {
+				shardScores = result.get();
+			}
+			catch (ExecutionException e) {
+				throw e.getCause() instanceof IOException
+					? (IOException) e.getCause() : new IOException("Unable to score the shard.", e.getCause());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the shards.");
+			}
+			for (int m = 0; m < merged.size(); m++) {
+				merged.get(m).merge(shardScores.get(m));
+			}
+		}
+		return merged;
+	}
+
+	/** End the session with every shard.  The shard servers keep running. */
+	public void close() throws IOException {
+
+		fanOut.shutdownNow();
+
+		IOException failure = null;
+		for (Connection shard : shards) {
+			try {
+				shard.close();
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * A session with a single ShardServer.  If a request fails part way through, the stream
+	 * may hold part of an answer, so the connection is closed rather than reused.
+	 */
+	private static final class Connection implements Closeable {
+
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private boolean failed = false;
+
+		private Connection(InetSocketAddress address, int timeoutMillis) throws IOException {
+			this.socket = new Socket();
+			try {
+				socket.connect(address, timeoutMillis);
+				socket.setSoTimeout(timeoutMillis);
+				socket.setTcpNoDelay(true);
+				this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+			catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		/** Score the test features, in requests of at most ShardServer.MAX_BATCH_SIZE masks. */
+		private synchronized List<LabelScores> scores(List<FeatureMask> testFeatures, int maxShift) throws IOException {
+
+			if (failed) {
+				throw new IOException("An earlier request to the shard failed, so the connection is closed.");
+			}
+
+			List<LabelScores> scores = new ArrayList<>();
+			boolean succeeded = false;
+
+			try {
+				for (int from = 0; from < testFeatures.size(); from += ShardServer.MAX_BATCH_SIZE) {
+					List<FeatureMask> batch = testFeatures.subList(from, 
+						Math.min(testFeatures.size(), from + ShardServer.MAX_BATCH_SIZE));
+
+					out.writeInt(maxShift);
+					out.writeInt(batch.size());
+					for (FeatureMask mask : batch) {
+						mask.write(out);
+					}
+					out.flush();
+
+					for (int m = 0; m < batch.size(); m++) {
+						scores.add(LabelScores.read(in));
+					}
+				}
+				succeeded = true;
+			}
+			finally {
+				if (!succeeded) {
+					failed = true;
+					try {
+						socket.close();
+					}
+					catch (IOException e) {
+						// The request's own failure is the one to report.
+					}
+				}
+			}
+			return scores;
+		}
+
+		public synchronized void close() throws IOException {
+			if (failed) {
+				return;
+			}
+			try {
+				out.writeInt(ShardServer.END_OF_SESSION);
+				out.flush();
+			}
+			finally {
+				socket.close();
+			}
+		}
+	}
+}
\ No newline at end of file
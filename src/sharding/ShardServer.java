@@ -0,0 +1,198 @@
+
+/**
+ * Serves one shard of a training set to a ShardCoordinator over a socket.  The server holds a
+ * BoundaryFeatureIndex of its shard, and answers each batch of test point FeatureMasks with the
+ * LabelScores of those test points against the shard.  The coordinator merges the LabelScores
+ * of all of the shards to make the final decision.
+ *
+ * The protocol is a sequence of requests on a single connection.  A request is the shift
+ * search radius followed by the number of masks and the masks themselves (see
+ * FeatureMask.write()).  The response is one LabelScores per mask, in the same order.  A
+ * radius of END_OF_SESSION ends the connection.
+ *
+ * The protocol is not authenticated, so by default the server only listens on the loopback
+ * address.  To serve coordinators on other machines, give the address of an interface on a
+ * trusted network.  Requests are checked before anything is allocated for them: the radius
+ * and batch size are bounded, and every mask must have the dimensions of the training grids.
+ * A connection that breaks the protocol is logged and closed.
+ *
+ * Usage: 'java ShardServer pathToTrainSet shard numShards [port] [numThreads] [bindAddress]'
+ * The server prints the port it is listening on, which is useful when port is 0.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+
+public final class ShardServer implements Closeable {
+
+	/** Sent in place of the shift search radius to end a session. */
+	static final int END_OF_SESSION = -1;
+
+	/** The most masks a single request may hold. */
+	static final int MAX_BATCH_SIZE = 4096;
+
+	private final BoundaryFeatureIndex index;
+	private final int gridWidth;
+	private final int gridHeight;
+	private final ServerSocket serverSocket;
+
+	// Each connection gets its own thread, and the masks of a batch are scanned in parallel.
+	private final ExecutorService connections = Executors.newCachedThreadPool();
+	private final ExecutorService scanners;
+
+	/**
+	 * Constructor.  The test masks must come from grids of the given dimensions, which must be
+	 * those of the training grids.  A port of 0 picks any free port.
+	 *
+	 * @throws IllegalArgumentException If the training grids have other dimensions.
+	 * @throws IOException If the port can't be opened.
+	 */
+	public ShardServer(BoundaryFeatureIndex index, int gridWidth, int gridHeight, InetAddress bindAddress, int port,
+		int numThreads) throws IOException {
+
+		for (int n = 0; n < index.size(); n++) {
+			FeatureMask neighborhood = index.neighborhood(n);
+			if (neighborhood.width() != gridWidth || neighborhood.height() != gridHeight) {
+				throw new IllegalArgumentException("Every training grid must be " + gridWidth + "x" + gridHeight + ".");
+			}
+		}
+
+		this.index = index;
+		this.gridWidth = gridWidth;
+		this.gridHeight = gridHeight;
+		this.serverSocket = new ServerSocket(port, 0, bindAddress);
+		this.scanners = Executors.newFixedThreadPool(numThreads);
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 3) {
+			throw new RuntimeException(
+				"Usage: java ShardServer pathToTrainSet shard numShards [port] [numThreads] [bindAddress]");
+		}
+
+		String path = args[0];
+		int shard;
+		int numShards;
+		int port = 0;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		InetAddress bindAddress = InetAddress.getLoopbackAddress();
+
+		try {
+			shard = Integer.parseInt(args[1]);
+			numShards = Integer.parseInt(args[2]);
+			if (args.length > 3) {
+				port = Integer.parseInt(args[3]);
+			}
+			if (args.length > 4) {
+				numThreads = Integer.parseInt(args[4]);
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new RuntimeException("Illegal argument for ShardServer.");
+		}
+		if (args.length > 5) {
+			bindAddress = InetAddress.getByName(args[5]);
+		}
+
+		BoundaryFeatureIndex index = IOUtils.getTrainingIndex(path, numThreads, shard, numShards);
+
+		try (ShardServer server = new ShardServer(index, IOUtils.GRID_WIDTH, IOUtils.GRID_HEIGHT, bindAddress, port,
+			numThreads)) {
+			System.out.printf("Shard %d of %d has %d points, listening on %s port %d\n", shard, numShards,
+				index.size(), bindAddress.getHostAddress(), server.port());
+			System.out.flush();
+			server.serve();
+		}
+	}
+
+	/** The port that the server is listening on. */
+	public int port() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accept connections until the server is closed.  A failed connection is logged, and 
+	 * doesn't affect any of the others.
+	 *
+	 * @throws IOException If the server can't accept connections, for reasons other than 
+	 * being closed.
+	 */
+	public void serve() throws IOException {
+
+		while (true) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			}
+			catch (IOException e) {
+				if (serverSocket.isClosed()) {
+					return;
+				}
+				throw e;
+			}
+
+			connections.submit(new Runnable() {
+				public void run() {
+					try (Socket connection = socket) {
+						handle(connection);
+					}
+					catch (IOException | RuntimeException e) {
+						System.err.printf("Connection from %s failed: %s\n", socket.getRemoteSocketAddress(), e);
+					}
+				}
+			});
+		}
+	}
+
+	public void close() throws IOException {
+		serverSocket.close();
+		connections.shutdownNow();
+		scanners.shutdownNow();
+	}
+
+	/** Answer requests on a connection until the coordinator ends the session. */
+	private void handle(Socket socket) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		for (int maxShift = in.readInt(); maxShift != END_OF_SESSION; maxShift = in.readInt()) {
+
+			// Shifts any larger than the grid can't match anything.
+			if (maxShift < 0 || maxShift > Math.max(gridWidth, gridHeight)) {
+				throw new IOException("Illegal shift search radius " + maxShift + ".");
+			}
+			final BoundaryMatchingClassifier classifier = BoundaryMatchingClassifier.CLASSIFIER(maxShift);
+
+			int numMasks = in.readInt();
+			if (numMasks < 0 || numMasks > MAX_BATCH_SIZE) {
+				throw new IOException("Illegal batch size " + numMasks + ".");
+			}
+
+			List<Future<LabelScores>> results = new ArrayList<>();
+			for (int m = 0; m < numMasks; m++) {
+				final FeatureMask testFeatures = FeatureMask.read(in, gridWidth, gridHeight);
+				results.add(scanners.submit(new Callable<LabelScores>() {
+					public LabelScores call() {
+						return classifier.scan(testFeatures, index);
+					}
+				}));
+			}
+
+			for (Future<LabelScores> result : results) {
+				try {
+					result.get().write(out);
+				}
+				catch (ExecutionException e) {
+					throw new IOException("Unable to scan the shard.", e.getCause());
+				}
+				catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while scanning the shard.");
+				}
+			}
+			out.flush();
+		}
+	}
+}
\ No newline at end of file
@@ -13,14 +13,14 @@ public final class IOUtils {
 	  *	For the purposes of this exercise, we can assume that we're always using the 
 	  * digits data from Kaggle, which all come on a 28x28 grid.
 	  */
-	private static final int GRID_WIDTH = 28;
-	private static final int GRID_HEIGHT = 28;
+	public static final int GRID_WIDTH = 28;
+	public static final int GRID_HEIGHT = 28;
 	
 	private static final int NUM_TRAINING_POINTS = 42000;
 	private static final int NUM_TEST_POINTS = 28000;
 	
-	private static final String PATH_TO_TEST_SET = "../data/test.csv";
-	private static final String PATH_TO_TRAIN_SET = "../data/train.csv";
+	public static final String PATH_TO_TEST_SET = "../data/test.csv";
+	public static final String PATH_TO_TRAIN_SET = "../data/train.csv";
 	
 	/** 
 	 * The getTrainingData() method will read the train.csv file and return a List of
@@ -32,6 +32,38 @@ public final class IOUtils {
 		return getFirstNTrainingPoints(NUM_TRAINING_POINTS);
 	}
 	
+	/**
+	 * Read the whole train.csv file into a BoundaryFeatureIndex, using every available core
+	 * to parse the file and compute the features.  The index keeps just the labels and
+	 * neighborhoods of the points.  See IngestionPipeline.
+	 *
+	 * @throws IOException If there are problems reading the file.
+	 */
+	public static BoundaryFeatureIndex getTrainingIndex() throws IOException {
+		return getTrainingIndex(PATH_TO_TRAIN_SET, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Read a training file in the Kaggle format into a BoundaryFeatureIndex, which doesn't keep
+	 * the points themselves, using numThreads threads.
+	 *
+	 * @throws IOException If there are problems reading the file.
+	 */
+	public static BoundaryFeatureIndex getTrainingIndex(String path, int numThreads) throws IOException {
+		return IngestionPipeline.buildTrainingIndex(path, GRID_HEIGHT, GRID_WIDTH, numThreads);
+	}
+	
+	/**
+	 * Read one shard of a training file in the Kaggle format into a BoundaryFeatureIndex, using
+	 * numThreads threads.  See IngestionPipeline for how the file is split into shards.
+	 *
+	 * @throws IOException If there are problems reading the file.
+	 */
+	public static BoundaryFeatureIndex getTrainingIndex(String path, int numThreads, int shard, int numShards) 
+		throws IOException {
+		return IngestionPipeline.buildTrainingIndex(path, GRID_HEIGHT, GRID_WIDTH, numThreads, shard, numShards);
+	}
+	
 	/**
 	 * Get the first n DigitTrainingPoints in the Kaggle Digit set.
 	 * 
@@ -0,0 +1,494 @@
+
+/**
+ * Multi-threaded loading of a Kaggle digit training file into a BoundaryFeatureIndex.
+ *
+ * The file is split into newline aligned byte ranges ("chunks").  Parser threads read and
+ * parse the chunks in parallel, and hand small batches of parsed points through a bounded
+ * queue to feature threads, which compute the Hessian neighborhoods.  Reading, parsing and
+ * feature extraction therefore overlap, and the bounded queue keeps the parsers from running
+ * arbitrarily far ahead of the feature threads.
+ *
+ * With a single thread there is nothing to overlap, so the calling thread parses each chunk
+ * and computes its neighborhoods itself.
+ *
+ * The points in the resulting index are in the same order as the lines of the file,
+ * regardless of the number of threads or the order in which the batches complete.  Unless
+ * asked to keep them, the points are dropped as soon as their neighborhoods are computed, and
+ * the index holds only their labels and neighborhoods (see BoundaryFeatureIndex).
+ *
+ * The file can also be loaded in shards, each of which is a newline aligned byte range of the
+ * file.  The shards are disjoint, and together they contain every line of the file.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+public final class IngestionPipeline {
+
+	/** The number of points handed from a parser to a feature thread at once. */
+	private static final int BATCH_SIZE = 256;
+
+	/** The number of batches that may wait in the queue, per feature thread. */
+	private static final int BATCHES_PER_FEATURE_THREAD = 4;
+
+	/** The target number of chunks per parser thread, so that uneven chunks balance out. */
+	private static final int CHUNKS_PER_PARSER = 4;
+
+	/** The largest chunk, so that the read buffers stay small even for very large files. */
+	private static final long MAX_CHUNK_BYTES = 8L << 20;
+
+	/** Marks the end of the queue for a feature thread. */
+	private static final Batch END_OF_QUEUE = new Batch(-1, -1, false);
+
+	/** No need to construct a Utils class. */
+	private IngestionPipeline() {}
+
+	/**
+	 * Read a training csv file (with a header line, and the label in the first column of
+	 * every line) and build a BoundaryFeatureIndex of all of its points, which doesn't keep the
+	 * points themselves, using numThreads threads in total.  With one thread, everything runs on the calling thread, and otherwise
+	 * the calling thread just waits for the others.
+	 *
+	 * @throws IOException If there are problems reading the file, or if it is malformed.
+	 */
+	public static BoundaryFeatureIndex buildTrainingIndex(String path, int gridHeight, int gridWidth,
+		int numThreads) throws IOException {
+		return buildTrainingIndex(path, gridHeight, gridWidth, numThreads, 0, 1);
+	}
+
+	/**
+	 * Build a BoundaryFeatureIndex of only the points in the given shard of a training csv
+	 * file.  Shard s of numShards contains the lines that start in the s'th of numShards equal
+	 * byte ranges of the file (after the header line).  The index doesn't keep the points.
+	 *
+	 * @throws IOException If there are problems reading the file, or if it is malformed.
+	 */
+	public static BoundaryFeatureIndex buildTrainingIndex(String path, int gridHeight, int gridWidth,
+		int numThreads, int shard, int numShards) throws IOException {
+		return buildTrainingIndex(path, gridHeight, gridWidth, numThreads, shard, numShards, false);
+	}
+
+	/**
+	 * Build a BoundaryFeatureIndex of the points in the given shard of a training csv file,
+	 * which keeps the points themselves if keepPoints is true (e.g. so that they can be shown
+	 * by BoundaryMatchingClassifier.retrieve()).
+	 *
+	 * @throws IOException If there are problems reading the file, or if it is malformed.
+	 */
+	public static BoundaryFeatureIndex buildTrainingIndex(String path, int gridHeight, int gridWidth,
+		int numThreads, int shard, int numShards, boolean keepPoints) throws IOException {
+
+		if (numThreads <= 0) {
+			throw new IllegalArgumentException("numThreads must be positive.");
+		}
+		if (numShards <= 0 || shard < 0 || shard >= numShards) {
+			throw new IllegalArgumentException("shard must be between 0 and numShards - 1.");
+		}
+
+		// Parsing is much cheaper than computing Hessians, so most threads compute features.
+		int numParsers = Math.max(1, numThreads / 3);
+		int numFeatureThreads = Math.max(1, numThreads - numParsers);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+			long dataStart = nextLineStart(channel, 0);
+			long shardStart = shardStart(channel, dataStart, shard, numShards);
+			long shardEnd = shardStart(channel, dataStart, shard + 1, numShards);
+			long[] chunkStarts = chunkStarts(channel, shardStart, shardEnd, numParsers);
+
+			if (numThreads == 1) {
+				Queue<Batch> completed = new ArrayDeque<>();
+				for (int c = 0; c + 1 < chunkStarts.length; c++) {
+					new ParseTask(channel, c, chunkStarts[c], chunkStarts[c + 1], gridHeight, gridWidth, keepPoints,
+						null, completed).call();
+				}
+				return assemble(completed, keepPoints);
+			}
+
+			BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(numFeatureThreads * BATCHES_PER_FEATURE_THREAD);
+			Queue<Batch> completed = new ConcurrentLinkedQueue<>();
+
+			ExecutorService parsers = Executors.newFixedThreadPool(numParsers);
+			ExecutorService featureThreads = Executors.newFixedThreadPool(numFeatureThreads);
+
+			try {
+				List<Future<?>> featureResults = new ArrayList<>();
+				for (int t = 0; t < numFeatureThreads; t++) {
+					featureResults.add(featureThreads.submit(new FeatureTask(queue, completed)));
+				}
+
+				List<Future<?>> parseResults = new ArrayList<>();
+				for (int c = 0; c + 1 < chunkStarts.length; c++) {
+					parseResults.add(parsers.submit(new ParseTask(channel, c, chunkStarts[c], chunkStarts[c + 1],
+						gridHeight, gridWidth, keepPoints, queue, null)));
+				}
+
+				// Wait for the parsers before ending the queue, but hang onto any failure until
+				// the feature threads have stopped.
+				IOException failure = await(parseResults, null);
+				for (int t = 0; t < numFeatureThreads; t++) {
+					putUninterruptibly(queue, END_OF_QUEUE);
+				}
+				failure = await(featureResults, failure);
+
+				if (failure != null) {
+					throw failure;
+				}
+			}
+			finally {
+				parsers.shutdownNow();
+				featureThreads.shutdownNow();
+			}
+
+			return assemble(completed, keepPoints);
+		}
+	}
+
+	/**
+	 * The position of the first line of the given shard, or the end of the file if shard is 
+	 * numShards.
+	 */
+	private static long shardStart(FileChannel channel, long dataStart, int shard, int numShards)
+		throws IOException {
+
+		long size = channel.size();
+
+		if (shard == 0) {
+			return dataStart;
+		}
+		if (shard == numShards) {
+			return size;
+		}
+		return nextLineStart(channel, dataStart + shard * (size - dataStart) / numShards - 1);
+	}
+
+	/**
+	 * Split the lines in the byte range [start, end) into smaller ranges, each of which starts
+	 * at the beginning of a line.  Chunk c is the range [starts[c], starts[c + 1]).
+	 */
+	private static long[] chunkStarts(FileChannel channel, long start, long end, int numParsers) throws IOException {
+
+		long numChunks = Math.max(numParsers * CHUNKS_PER_PARSER, (end - start) / MAX_CHUNK_BYTES + 1);
+		numChunks = Math.max(1, Math.min(numChunks, end - start));
+
+		long[] starts = new long[(int) numChunks + 1];
+		starts[0] = start;
+		for (int c = 1; c < numChunks; c++) {
+			long target = start + c * (end - start) / numChunks;
+			starts[c] = Math.min(end, Math.max(starts[c - 1], nextLineStart(channel, target - 1)));
+		}
+		starts[(int) numChunks] = end;
+		return starts;
+	}
+
+	/**
+	 * Return the position just after the first newline at or after position, or the end of
+	 * the file if there is no such newline.
+	 */
+	private static long nextLineStart(FileChannel channel, long position) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		while (true) {
+			buffer.clear();
+			int numRead = channel.read(buffer, position);
+			if (numRead <= 0) {
+				return channel.size();
+			}
+			for (int k = 0; k < numRead; k++) {
+				if (buffer.get(k) == '\n') {
+					return position + k + 1;
+				}
+			}
+			position += numRead;
+		}
+	}
+
+	/**
+	 * Wait for all of the tasks, and return the first failure (or previousFailure, if that is
+	 * not null).
+	 */
+	private static IOException await(List<Future<?>> results, IOException previousFailure) {
+
+		IOException failure = previousFailure;
+
+		for (Future<?> result : results) {
+			try {
+				result.get();
+			}
+			catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof IOException
+						? (IOException) e.getCause() : new IOException("Unable to build the index.", e.getCause());
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = new InterruptedIOException("Interrupted while building the index.");
+				}
+			}
+		}
+		return failure;
+	}
+
+	/** Put a batch onto the queue, even if this thread is interrupted. */
+	private static void putUninterruptibly(BlockingQueue<Batch> queue, Batch batch) {
+
+		boolean interrupted = false;
+
+		while (true) {
+			try {
+				queue.put(batch);
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Put the completed batches back into file order, and build the index. */
+	private static BoundaryFeatureIndex assemble(Collection<Batch> completed, boolean keepPoints) {
+
+		List<Batch> batches = new ArrayList<>(completed);
+		Collections.sort(batches, new Comparator<Batch>() {
+			public int compare(Batch first, Batch second) {
+				if (first.chunk != second.chunk) {
+					return Integer.compare(first.chunk, second.chunk);
+				}
+				return Integer.compare(first.sequence, second.sequence);
+			}
+		});
+
+		List<DigitTrainingPoint> points = new ArrayList<>();
+		List<Integer> labels = new ArrayList<>();
+		List<FeatureMask> neighborhoods = new ArrayList<>();
+		for (Batch batch : batches) {
+			points.addAll(batch.points);
+			labels.addAll(batch.labels);
+			neighborhoods.addAll(batch.neighborhoods);
+		}
+		if (keepPoints) {
+			return new BoundaryFeatureIndex(points, neighborhoods);
+		}
+
+		int[] labelArray = new int[labels.size()];
+		for (int n = 0; n < labelArray.length; n++) {
+			labelArray[n] = labels.get(n);
+		}
+		return new BoundaryFeatureIndex(labelArray, neighborhoods);
+	}
+
+	/**
+	 * Parse a single line of a training file into a DigitTrainingPoint.  The bytes of the line
+	 * are parsed directly, which avoids creating Strings and boxed Integers for every value.
+	 *
+	 * @throws IOException If the line doesn't contain a label and gridHeight * gridWidth values.
+	 */
+	static DigitTrainingPoint parseTrainingLine(byte[] bytes, int start, int end, int gridHeight,
+		int gridWidth) throws IOException {
+
+		int[][] values = new int[gridWidth][gridHeight];
+		int label = 0;
+
+		// The index of the current value.  Value 0 is the label, and the pixels are listed left
+		// to right, top to bottom.
+		int valueIndex = 0;
+		int currentValue = 0;
+		boolean sawDigit = false;
+
+		for (int k = start; k <= end; k++) {
+			byte b = k < end ? bytes[k] : (byte) ',';
+			if (b >= '0' && b <= '9') {
+				currentValue = 10 * currentValue + (b - '0');
+				sawDigit = true;
+			}
+			else if (b == ',') {
+				if (!sawDigit || valueIndex > gridHeight * gridWidth) {
+					throw new IOException("Malformed line: " + new String(bytes, start, end - start));
+				}
+				if (valueIndex == 0) {
+					label = currentValue;
+				}
+				else {
+					int pixel = valueIndex - 1;
+					values[pixel % gridWidth][pixel / gridWidth] = currentValue;
+				}
+				valueIndex++;
+				currentValue = 0;
+				sawDigit = false;
+			}
+			else if (b != ' ' && b != '\r') {
+				throw new IOException("Malformed line: " + new String(bytes, start, end - start));
+			}
+		}
+
+		if (valueIndex != gridHeight * gridWidth + 1) {
+			throw new IOException("Expected " + (gridHeight * gridWidth + 1) + " values, but found " + valueIndex + ".");
+		}
+		return new DigitTrainingPoint(new Grid(values), label);
+	}
+
+	/**
+	 * A batch of consecutive points from a single chunk.  The parser fills in the points, and
+	 * a feature thread fills in the labels and neighborhoods, and then drops the points unless
+	 * they are to be kept.
+	 */
+	private static final class Batch {
+
+		private final int chunk;
+		private final int sequence;
+		private final boolean keepPoints;
+		private final List<DigitTrainingPoint> points = new ArrayList<>(BATCH_SIZE);
+		private final List<Integer> labels = new ArrayList<>(BATCH_SIZE);
+		private final List<FeatureMask> neighborhoods = new ArrayList<>(BATCH_SIZE);
+
+		private Batch(int chunk, int sequence, boolean keepPoints) {
+			this.chunk = chunk;
+			this.sequence = sequence;
+			this.keepPoints = keepPoints;
+		}
+	}
+
+	/** Compute the labels and neighborhoods of the points in a batch. */
+	private static void computeNeighborhoods(Batch batch) {
+		for (DigitTrainingPoint point : batch.points) {
+			batch.labels.add(point.getLabel());
+			batch.neighborhoods.add(BoundaryMatchingClassifier.neighborhood(point.getGrid()));
+		}
+		if (!batch.keepPoints) {
+			batch.points.clear();
+		}
+	}
+
+	/**
+	 * Reads and parses a single chunk of the file, and hands its batches to the feature 
+	 * threads through the queue.  If there is no queue, the parser computes the neighborhoods 
+	 * itself, and adds the batches straight to completed.
+	 */
+	private static final class ParseTask implements Callable<Void> {
+
+		private final FileChannel channel;
+		private final int chunk;
+		private final long start;
+		private final long end;
+		private final int gridHeight;
+		private final int gridWidth;
+		private final boolean keepPoints;
+		private final BlockingQueue<Batch> queue;
+		private final Queue<Batch> completed;
+
+		private ParseTask(FileChannel channel, int chunk, long start, long end, int gridHeight, int gridWidth,
+			boolean keepPoints, BlockingQueue<Batch> queue, Queue<Batch> completed) {
+			this.channel = channel;
+			this.chunk = chunk;
+			this.start = start;
+			this.end = end;
+			this.gridHeight = gridHeight;
+			this.gridWidth = gridWidth;
+			this.keepPoints = keepPoints;
+			this.queue = queue;
+			this.completed = completed;
+		}
+
+		public Void call() throws IOException {
+
+			byte[] bytes = read();
+
+			int sequence = 0;
+			Batch batch = new Batch(chunk, sequence++, keepPoints);
+
+			int lineStart = 0;
+			for (int k = 0; k <= bytes.length; k++) {
+				if (k < bytes.length && bytes[k] != '\n') {
+					continue;
+				}
+				// Skip blank lines, e.g. a trailing newline at the end of the file.
+				if (k - lineStart > 1 || (k - lineStart == 1 && bytes[lineStart] != '\r')) {
+					batch.points.add(parseTrainingLine(bytes, lineStart, k, gridHeight, gridWidth));
+				}
+				lineStart = k + 1;
+
+				if (batch.points.size() == BATCH_SIZE) {
+					handOff(batch);
+					batch = new Batch(chunk, sequence++, keepPoints);
+				}
+			}
+			if (!batch.points.isEmpty()) {
+				handOff(batch);
+			}
+			return null;
+		}
+
+		private void handOff(Batch batch) throws IOException {
+
+			if (queue == null) {
+				computeNeighborhoods(batch);
+				completed.add(batch);
+				return;
+			}
+			try {
+				queue.put(batch);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while parsing the file.");
+			}
+		}
+
+		/** Read the whole chunk.  Positional reads are safe to use from several threads. */
+		private byte[] read() throws IOException {
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
+					throw new EOFException("The file was truncated while it was being read.");
+				}
+			}
+			return buffer.array();
+		}
+	}
+
+	/** Computes the neighborhoods of the batches on the queue until it sees END_OF_QUEUE. */
+	private static final class FeatureTask implements Callable<Void> {
+
+		private final BlockingQueue<Batch> queue;
+		private final Queue<Batch> completed;
+
+		private FeatureTask(BlockingQueue<Batch> queue, Queue<Batch> completed) {
+			this.queue = queue;
+			this.completed = completed;
+		}
+
+		public Void call() throws InterruptedException {
+
+			RuntimeException failure = null;
+
+			for (Batch batch = queue.take(); batch != END_OF_QUEUE; batch = queue.take()) {
+				// After a failure keep draining the queue, so that no parser blocks forever.
+				if (failure != null) {
+					continue;
+				}
+				try {
+					computeNeighborhoods(batch);
+					completed.add(batch);
+				}
+				catch (RuntimeException e) {
+					failure = e;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,351 @@
+
+/**
+ * Generates any number of digit-like 28x28 grids, so that the system can be exercised at
+ * scales well beyond the 42000 points of the Kaggle training set.
+ *
+ * Every generated point is a randomly distorted copy of a "seed" point.  The seeds are either
+ * real digits (e.g. the first few hundred Kaggle training points), or the built in seeds, which
+ * are rendered from simple stroke templates.  A distortion is a small rotation, scaling, shear
+ * and shift, combined with a smooth random displacement field that jitters the strokes, and a
+ * change in intensity.
+ *
+ * Generation is deterministic: the n'th point depends only on the seeds, the random seed and n.
+ * In particular, files written with any number of threads are identical.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+public final class SyntheticDigitGenerator {
+
+	/** The size of the generated grids, which matches the Kaggle data. */
+	public static final int GRID_SIZE = 28;
+
+	// The number of points that a thread generates at once when writing a file.
+	private static final int POINTS_PER_BLOCK = 1024;
+
+	// The bounds of the random distortions.
+	private static final double MAX_ROTATION = 0.2;
+	private static final double MIN_SCALE = 0.85;
+	private static final double MAX_SCALE = 1.1;
+	private static final double MAX_SHEAR = 0.15;
+	private static final double MAX_SHIFT = 2.5;
+	private static final double MAX_JITTER = 1.2;
+	private static final double MIN_GAIN = 0.75;
+
+	// The displacement field is interpolated between random displacements on a coarse grid.
+	private static final int JITTER_GRID_SIZE = 4;
+
+	// The built in seeds are rendered with each combination of these stroke widths and slants.
+	private static final double[] STROKE_WIDTHS = {1.4, 1.9, 2.4};
+	private static final double[] SLANTS = {-0.15, 0, 0.15};
+
+	private final List<DigitTrainingPoint> seeds;
+	private final long randomSeed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @throws IllegalArgumentException If there are no seeds, or they aren't GRID_SIZE square.
+	 */
+	public SyntheticDigitGenerator(List<DigitTrainingPoint> seeds, long randomSeed) {
+
+		if (seeds.isEmpty()) {
+			throw new IllegalArgumentException("At least one seed is required.");
+		}
+		for (DigitTrainingPoint seed : seeds) {
+			if (seed.getGrid().width() != GRID_SIZE || seed.getGrid().height() != GRID_SIZE) {
+				throw new IllegalArgumentException("Seeds must be " + GRID_SIZE + "x" + GRID_SIZE + ".");
+			}
+		}
+		this.seeds = new ArrayList<>(seeds);
+		this.randomSeed = randomSeed;
+	}
+
+	/** Get a generator that uses the built in seeds, so that no data files are needed. */
+	public static SyntheticDigitGenerator withBuiltInSeeds(long randomSeed) {
+		return new SyntheticDigitGenerator(builtInSeeds(), randomSeed);
+	}
+
+	/**
+	 * The seed of the n'th point's Random.  Random's first outputs are strongly correlated for
+	 * nearby seeds, so the seeds are spread out with the SplitMix64 mixing function.  Otherwise
+	 * neighboring points would share their seed point and distortions, and a short range of
+	 * points (a chunk, a shard or a window of queries) would be far from a representative sample.
+	 */
+	private long pointSeed(long n) {
+		return mix(mix(randomSeed) + n * 0x9E3779B97F4A7C15L);
+	}
+
+	/** The SplitMix64 mixing function, which scrambles the bits of z. */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Generate the n'th point.
+	 */
+	public DigitTrainingPoint generate(long n) {
+
+		Random random = new Random(pointSeed(n));
+
+		DigitTrainingPoint seed = seeds.get(random.nextInt(seeds.size()));
+		Grid seedGrid = seed.getGrid();
+
+		// The inverse of the linear part of the distortion, which maps output pixels back onto
+		// the seed.  The distortion is a rotation of a sheared scaling.
+		double rotation = (2 * random.nextDouble() - 1) * MAX_ROTATION;
+		double scale = MIN_SCALE + random.nextDouble() * (MAX_SCALE - MIN_SCALE);
+		double shear = (2 * random.nextDouble() - 1) * MAX_SHEAR;
+		double cos = Math.cos(rotation);
+		double sin = Math.sin(rotation);
+		double a = scale * cos;
+		double b = shear * cos - scale * sin;
+		double c = scale * sin;
+		double d = shear * sin + scale * cos;
+		double determinant = a * d - b * c;
+
+		double shiftX = (2 * random.nextDouble() - 1) * MAX_SHIFT;
+		double shiftY = (2 * random.nextDouble() - 1) * MAX_SHIFT;
+
+		double[][] jitterX = jitterGrid(random);
+		double[][] jitterY = jitterGrid(random);
+
+		double gain = MIN_GAIN + random.nextDouble() * (1 - MIN_GAIN);
+
+		double center = (GRID_SIZE - 1) / 2.0;
+		int[][] values = new int[GRID_SIZE][GRID_SIZE];
+
+		for (int i = 0; i < GRID_SIZE; i++) {
+			for (int j = 0; j < GRID_SIZE; j++) {
+				double x = i - center - shiftX;
+				double y = j - center - shiftY;
+				double sourceX = (d * x - b * y) / determinant + center + interpolate(jitterX, i, j);
+				double sourceY = (a * y - c * x) / determinant + center + interpolate(jitterY, i, j);
+				int value = (int) Math.round(gain * sample(seedGrid, sourceX, sourceY));
+				values[i][j] = Math.max(0, Math.min(255, value));
+			}
+		}
+		return new DigitTrainingPoint(new Grid(values), seed.getLabel());
+	}
+
+	/**
+	 * Write numPoints generated points to a csv file in the Kaggle format, using numThreads
+	 * threads.  With labels, this is the format of train.csv.  Without, it is that of test.csv.
+	 *
+	 * @throws IOException If there are problems writing the file.
+	 */
+	public void writeCsv(String path, final long numPoints, final boolean includeLabels, int numThreads)
+		throws IOException {
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16)) {
+
+			out.write(header(includeLabels));
+
+			// Generate blocks in parallel, but write them in order.  At most a few blocks per
+			// thread are held in memory at once.
+			Deque<Future<byte[]>> pending = new ArrayDeque<>();
+			long nextBlockStart = 0;
+
+			while (nextBlockStart < numPoints || !pending.isEmpty()) {
+				while (nextBlockStart < numPoints && pending.size() < 2 * numThreads) {
+					final long start = nextBlockStart;
+					final long end = Math.min(numPoints, start + POINTS_PER_BLOCK);
+					pending.add(pool.submit(new Callable<byte[]>() {
+						public byte[] call() {
+							return csvLines(start, end, includeLabels);
+						}
+					}));
+					nextBlockStart = end;
+				}
+				out.write(pending.remove().get());
+			}
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Unable to generate the points.", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while generating the points.");
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** The csv lines of the points in [start, end). */
+	private byte[] csvLines(long start, long end, boolean includeLabels) {
+
+		ByteArrayOutputStream lines = new ByteArrayOutputStream((int) (end - start) * 2 * GRID_SIZE * GRID_SIZE);
+		byte[] digits = new byte[11];
+
+		for (long n = start; n < end; n++) {
+			DigitTrainingPoint point = generate(n);
+			boolean first = true;
+			if (includeLabels) {
+				writeInt(lines, point.getLabel(), digits);
+				first = false;
+			}
+			// Pixels are listed left to right, top to bottom.
+			for (int j = 0; j < GRID_SIZE; j++) {
+				for (int i = 0; i < GRID_SIZE; i++) {
+					if (!first) {
+						lines.write(',');
+					}
+					writeInt(lines, point.getGrid().valueAt(i, j), digits);
+					first = false;
+				}
+			}
+			lines.write('\n');
+		}
+		return lines.toByteArray();
+	}
+
+	/** Write a non-negative int in decimal, without creating a String. */
+	private static void writeInt(ByteArrayOutputStream out, int value, byte[] digits) {
+		int numDigits = 0;
+		do {
+			digits[numDigits++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (numDigits > 0) {
+			out.write(digits[--numDigits]);
+		}
+	}
+
+	private static byte[] header(boolean includeLabels) {
+		StringBuilder header = new StringBuilder(includeLabels ? "label" : "");
+		for (int k = 0; k < GRID_SIZE * GRID_SIZE; k++) {
+			if (header.length() > 0) {
+				header.append(',');
+			}
+			header.append("pixel").append(k);
+		}
+		return header.append('\n').toString().getBytes();
+	}
+
+	/** Random displacements on the coarse jitter grid. */
+	private static double[][] jitterGrid(Random random) {
+		double[][] jitter = new double[JITTER_GRID_SIZE][JITTER_GRID_SIZE];
+		for (int u = 0; u < JITTER_GRID_SIZE; u++) {
+			for (int v = 0; v < JITTER_GRID_SIZE; v++) {
+				jitter[u][v] = (2 * random.nextDouble() - 1) * MAX_JITTER;
+			}
+		}
+		return jitter;
+	}
+
+	/** Bilinearly interpolate the coarse jitter grid at the pixel (i, j). */
+	private static double interpolate(double[][] jitter, int i, int j) {
+		double u = i * (JITTER_GRID_SIZE - 1.0) / (GRID_SIZE - 1);
+		double v = j * (JITTER_GRID_SIZE - 1.0) / (GRID_SIZE - 1);
+		int u0 = Math.min((int) u, JITTER_GRID_SIZE - 2);
+		int v0 = Math.min((int) v, JITTER_GRID_SIZE - 2);
+		double fu = u - u0;
+		double fv = v - v0;
+		return (1 - fu) * ((1 - fv) * jitter[u0][v0] + fv * jitter[u0][v0 + 1])
+			+ fu * ((1 - fv) * jitter[u0 + 1][v0] + fv * jitter[u0 + 1][v0 + 1]);
+	}
+
+	/** Bilinearly sample a grid at a non-integral location.  The grid is 0 outside its bounds. */
+	private static double sample(Grid grid, double x, double y) {
+		int i0 = (int) Math.floor(x);
+		int j0 = (int) Math.floor(y);
+		double fx = x - i0;
+		double fy = y - j0;
+		return (1 - fx) * ((1 - fy) * valueOrZero(grid, i0, j0) + fy * valueOrZero(grid, i0, j0 + 1))
+			+ fx * ((1 - fy) * valueOrZero(grid, i0 + 1, j0) + fy * valueOrZero(grid, i0 + 1, j0 + 1));
+	}
+
+	private static int valueOrZero(Grid grid, int i, int j) {
+		if (i < 0 || j < 0 || i >= grid.width() || j >= grid.height()) {
+			return 0;
+		}
+		return grid.valueAt(i, j);
+	}
+
+	/**
+	 * Render the built in seeds.  Each digit is a set of strokes (polylines) in the unit square,
+	 * with x to the right and y down, drawn into the central 20x20 box of the grid as the Kaggle
+	 * digits are.
+	 */
+	private static List<DigitTrainingPoint> builtInSeeds() {
+
+		List<List<double[]>> templates = new ArrayList<>();
+		templates.add(Arrays.asList(ellipse(0.5, 0.5, 0.28, 0.4)));
+		templates.add(Arrays.asList(new double[] {0.35, 0.25, 0.55, 0.08, 0.55, 0.92}));
+		templates.add(Arrays.asList(new double[] {0.22, 0.3, 0.32, 0.12, 0.55, 0.08, 0.74, 0.2, 0.72, 0.42,
+			0.22, 0.9, 0.8, 0.9}));
+		templates.add(Arrays.asList(new double[] {0.22, 0.12, 0.72, 0.12, 0.45, 0.45, 0.7, 0.58, 0.74, 0.78,
+			0.52, 0.92, 0.22, 0.85}));
+		templates.add(Arrays.asList(new double[] {0.66, 0.92, 0.66, 0.08, 0.18, 0.65, 0.82, 0.65}));
+		templates.add(Arrays.asList(new double[] {0.76, 0.1, 0.3, 0.1, 0.26, 0.45, 0.55, 0.38, 0.75, 0.55,
+			0.74, 0.76, 0.5, 0.92, 0.22, 0.84}));
+		templates.add(Arrays.asList(new double[] {0.7, 0.1, 0.42, 0.32, 0.27, 0.6, 0.33, 0.86, 0.58, 0.92,
+			0.74, 0.72, 0.58, 0.52, 0.28, 0.62}));
+		templates.add(Arrays.asList(new double[] {0.2, 0.1, 0.8, 0.1, 0.42, 0.92}));
+		templates.add(Arrays.asList(ellipse(0.5, 0.28, 0.2, 0.19), ellipse(0.5, 0.7, 0.25, 0.21)));
+		templates.add(Arrays.asList(ellipse(0.48, 0.32, 0.22, 0.21), new double[] {0.7, 0.32, 0.6, 0.92}));
+
+		List<DigitTrainingPoint> seeds = new ArrayList<>();
+		for (int label = 0; label < templates.size(); label++) {
+			for (double strokeWidth : STROKE_WIDTHS) {
+				for (double slant : SLANTS) {
+					seeds.add(new DigitTrainingPoint(render(templates.get(label), strokeWidth, slant), label));
+				}
+			}
+		}
+		return seeds;
+	}
+
+	/** A closed polyline approximating an ellipse. */
+	private static double[] ellipse(double centerX, double centerY, double radiusX, double radiusY) {
+		int numSegments = 24;
+		double[] points = new double[2 * (numSegments + 1)];
+		for (int k = 0; k <= numSegments; k++) {
+			double angle = 2 * Math.PI * k / numSegments;
+			points[2 * k] = centerX + radiusX * Math.cos(angle);
+			points[2 * k + 1] = centerY + radiusY * Math.sin(angle);
+		}
+		return points;
+	}
+
+	/** Draw the strokes with the given width (in pixels) and slant, with soft edges. */
+	private static Grid render(List<double[]> strokes, double strokeWidth, double slant) {
+
+		int[][] values = new int[GRID_SIZE][GRID_SIZE];
+
+		for (int i = 0; i < GRID_SIZE; i++) {
+			for (int j = 0; j < GRID_SIZE; j++) {
+				double distance = Double.MAX_VALUE;
+				for (double[] stroke : strokes) {
+					for (int k = 0; k + 3 < stroke.length; k += 2) {
+						distance = Math.min(distance, distanceToSegment(i, j,
+							toPixel(stroke[k], stroke[k + 1], slant), toPixel(stroke[k + 1], 0, 0),
+							toPixel(stroke[k + 2], stroke[k + 3], slant), toPixel(stroke[k + 3], 0, 0)));
+					}
+				}
+				double coverage = Math.max(0, Math.min(1, strokeWidth / 2 + 0.5 - distance));
+				values[i][j] = (int) Math.round(255 * coverage);
+			}
+		}
+		return new Grid(values);
+	}
+
+	/** Map a unit square coordinate into the central 20x20 box, slanting x by y. */
+	private static double toPixel(double coordinate, double y, double slant) {
+		return 4 + 20 * (coordinate + slant * (0.5 - y));
+	}
+
+	private static double distanceToSegment(double x, double y, double x0, double y0, double x1, double y1) {
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / lengthSquared));
+		return Math.hypot(x - x0 - t * dx, y - y0 - t * dy);
+	}
+}
\ No newline at end of file